@@ -0,0 +1,302 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A persistent Burkhard-Keller tree of strings for typo-tolerant lookups by Levenshtein distance.
+ * Every child of a node is stored under its distance to the node, so by the triangle inequality a
+ * search for strings within k edits of a query only has to descend into the children whose
+ * distance lies within k of the query's distance to the node. All other subtrees are skipped
+ * without computing a single distance.
+ *
+ * Like PersistentRedBlackTree, the tree is never changed once it is built: insert copies the path
+ * to the new node and shares everything else, so a tree can be read by many threads without
+ * locks. Strings cannot be removed, a caller that needs removal filters the results against its
+ * own index of the current strings.
+ */
+public final class BKTree {
+
+  /**
+   * A string found by search together with its distance to the query.
+   */
+  public static final class Match implements Comparable<Match> {
+    public final String key;
+    public final int distance;
+
+    Match(String key, int distance) {
+      this.key = key;
+      this.distance = distance;
+    }
+
+    /**
+     * Orders matches by distance, closest first, and equally close matches by key.
+     */
+    @Override
+    public int compareTo(Match other) {
+      return distance != other.distance ? Integer.compare(distance, other.distance) : key.compareTo(other.key);
+    }
+
+    @Override
+    public String toString() {
+      return key + " (" + distance + ")";
+    }
+  }
+
+  /**
+   * The children of a node are kept in arrays sorted by their distance to the node. The arrays
+   * are only changed while a tree is being built by buildFrom, before it is published.
+   */
+  private static final class Node {
+    private final String key;
+    private int[] distances;
+    private Node[] children;
+
+    private Node(String key, int[] distances, Node[] children) {
+      this.key = key;
+      this.distances = distances;
+      this.children = children;
+    }
+
+    /**
+     * @return the position of the child at the given distance, or -(insertion point) - 1
+     */
+    private int find(int distance) {
+      return Arrays.binarySearch(distances, distance);
+    }
+
+    /**
+     * @return the greatest distance of a child, or 0 when the node has no children
+     */
+    private int maxDistance() {
+      return distances.length == 0 ? 0 : distances[distances.length - 1];
+    }
+
+    /**
+     * @return a copy of this node with the child at the given position replaced, or inserted when
+     *         position is an insertion point as returned by find
+     */
+    private Node with(int position, int distance, Node child) {
+      if (position >= 0) {
+        Node[] children = this.children.clone();
+        children[position] = child;
+        return new Node(key, distances, children);
+      }
+      position = -position - 1;
+      int[] distances = new int[this.distances.length + 1];
+      Node[] children = new Node[this.children.length + 1];
+      System.arraycopy(this.distances, 0, distances, 0, position);
+      System.arraycopy(this.children, 0, children, 0, position);
+      distances[position] = distance;
+      children[position] = child;
+      System.arraycopy(this.distances, position, distances, position + 1, this.distances.length - position);
+      System.arraycopy(this.children, position, children, position + 1, this.children.length - position);
+      return new Node(key, distances, children);
+    }
+  }
+
+  private static final int[] NO_DISTANCES = new int[0];
+  private static final Node[] NO_CHILDREN = new Node[0];
+
+  private final Node root;
+  private final int size;
+  private final int maxLength; // the length of the longest string
+
+  /**
+   * Creates an empty tree.
+   */
+  public BKTree() {
+    this(null, 0, 0);
+  }
+
+  private BKTree(Node root, int size, int maxLength) {
+    this.root = root;
+    this.size = size;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Builds a tree from the given strings. Duplicates are stored once.
+   *
+   * @throws NullPointerException when the collection contains null
+   */
+  public static BKTree buildFrom(Collection<String> keys) {
+    Node root = null;
+    int size = 0;
+    int maxLength = 0;
+    int[][] buffer = new int[1][];
+    for (String key : keys) {
+      if (key == null)
+        throw new NullPointerException("This BKTree cannot store null references.");
+      maxLength = Math.max(maxLength, key.length());
+      if (root == null) {
+        root = new Node(key, NO_DISTANCES, NO_CHILDREN);
+        size++;
+        continue;
+      }
+      // the tree is not shared yet, so the new leaf is linked into its parent in place
+      Node node = root;
+      while (true) {
+        int distance = distance(key, node.key, Integer.MAX_VALUE, buffer);
+        if (distance == 0)
+          break;
+        int position = node.find(distance);
+        if (position >= 0) {
+          node = node.children[position];
+          continue;
+        }
+        Node added = node.with(position, distance, new Node(key, NO_DISTANCES, NO_CHILDREN));
+        node.distances = added.distances;
+        node.children = added.children;
+        size++;
+        break;
+      }
+    }
+    return new BKTree(root, size, maxLength);
+  }
+
+  /**
+   * @return the number of distinct strings in this tree
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns a tree that also holds key. This tree is not changed.
+   *
+   * @return the new version of the tree, or this tree when it already contains key
+   * @throws NullPointerException when key is null
+   */
+  public BKTree insert(String key) throws NullPointerException {
+    if (key == null)
+      throw new NullPointerException("This BKTree cannot store null references.");
+    if (root == null)
+      return new BKTree(new Node(key, NO_DISTANCES, NO_CHILDREN), 1, key.length());
+    // walk down to the node that gets the new leaf, then copy the path back up to the root
+    List<Node> path = new ArrayList<Node>();
+    List<Integer> positions = new ArrayList<Integer>();
+    int[][] buffer = new int[1][];
+    Node node = root;
+    int distance;
+    int position;
+    while (true) {
+      distance = distance(key, node.key, Integer.MAX_VALUE, buffer);
+      if (distance == 0)
+        return this;
+      position = node.find(distance);
+      path.add(node);
+      positions.add(position);
+      if (position < 0)
+        break;
+      node = node.children[position];
+    }
+    Node copy = path.get(path.size() - 1).with(position, distance, new Node(key, NO_DISTANCES, NO_CHILDREN));
+    for (int i = path.size() - 2; i >= 0; i--) {
+      Node parent = path.get(i);
+      int at = positions.get(i);
+      copy = parent.with(at, parent.distances[at], copy);
+    }
+    return new BKTree(copy, size + 1, Math.max(maxLength, key.length()));
+  }
+
+  /**
+   * Finds the strings within maxEdits insertions, deletions or substitutions of the query.
+   *
+   * @return the matches, closest first and equally close matches in key order
+   */
+  public List<Match> search(String query, int maxEdits) {
+    return search(query, maxEdits, null);
+  }
+
+  /**
+   * Searches like search(query, maxEdits) and adds the number of distances it computed, that is the
+   * number of strings it compared with the query, to distances[0] unless distances is null.
+   * PlayerBenchmark uses the count to show how much of the tree a search skips.
+   */
+  List<Match> search(String query, int maxEdits, long[] distances) {
+    if (query == null)
+      throw new NullPointerException("This BKTree cannot store null references.");
+    List<Match> matches = new ArrayList<Match>();
+    if (root == null || maxEdits < 0)
+      return matches;
+    // no two strings are further apart than the longer one is long, and a smaller bound keeps the
+    // sums below from overflowing
+    maxEdits = Math.min(maxEdits, Math.max(query.length(), maxLength));
+    int[][] buffer = new int[1][];
+    List<Node> pending = new ArrayList<Node>();
+    pending.add(root);
+    while (!pending.isEmpty()) {
+      Node node = pending.remove(pending.size() - 1);
+      // a distance above maxDistance + maxEdits rules out the node and all of its children, so
+      // the computation may stop as soon as it is certain to be above that
+      int distance = distance(query, node.key, node.maxDistance() + maxEdits, buffer);
+      if (distances != null)
+        distances[0]++;
+      if (distance <= maxEdits)
+        matches.add(new Match(node.key, distance));
+      int from = node.find(distance - maxEdits);
+      for (int i = from >= 0 ? from : -from - 1; i < node.distances.length
+          && node.distances[i] <= distance + maxEdits; i++) {
+        pending.add(node.children[i]);
+      }
+    }
+    Collections.sort(matches);
+    return matches;
+  }
+
+  /**
+   * Computes the Levenshtein distance of two strings. The common prefix and suffix are skipped
+   * and the dynamic programming table is kept in a single row. When every entry of a row exceeds
+   * limit the final distance must as well, and limit + 1 is returned without finishing the table.
+   *
+   * @param buffer holds a reusable row in buffer[0], which is grown as needed
+   */
+  static int distance(String a, String b, int limit, int[][] buffer) {
+    int start = 0;
+    int aEnd = a.length();
+    int bEnd = b.length();
+    while (start < aEnd && start < bEnd && a.charAt(start) == b.charAt(start)) {
+      start++;
+    }
+    while (aEnd > start && bEnd > start && a.charAt(aEnd - 1) == b.charAt(bEnd - 1)) {
+      aEnd--;
+      bEnd--;
+    }
+    int aLength = aEnd - start;
+    int bLength = bEnd - start;
+    // every edit changes the length by at most one
+    if (Math.abs(aLength - bLength) > limit)
+      return limit + 1;
+    if (aLength == 0 || bLength == 0)
+      return aLength + bLength;
+    if (buffer[0] == null || buffer[0].length <= bLength)
+      buffer[0] = new int[bLength + 1];
+    int[] row = buffer[0];
+    for (int j = 0; j <= bLength; j++) {
+      row[j] = j;
+    }
+    for (int i = 1; i <= aLength; i++) {
+      char c = a.charAt(start + i - 1);
+      int diagonal = row[0];
+      row[0] = i;
+      int rowMin = i;
+      for (int j = 1; j <= bLength; j++) {
+        int above = row[j];
+        int value = c == b.charAt(start + j - 1) ? diagonal : Math.min(diagonal, Math.min(above, row[j - 1])) + 1;
+        diagonal = above;
+        row[j] = value;
+        if (value < rowMin)
+          rowMin = value;
+      }
+      if (rowMin > limit)
+        return limit + 1;
+    }
+    return row[bLength];
+  }
+}
@@ -1,69 +1,1151 @@
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 import java.util.zip.DataFormatException;
 
 public class Backend implements BackendInterface {
-	private PlayerStatsReader statsReader = new PlayerStatsReader();
-	private List<Player> playerData = new ArrayList<Player>();
-	private RedBlackTree<Player> defaultTree;
-	private RedBlackTree<Player> dynamicTree;
+	/**
+	 * Orders players by their lower case name first, so that a case-insensitive name lookup is a
+	 * single descent of the tree. Names that only differ in case are ordered by the original name.
+	 * Players with the same name are ordered by ID, and the seasons of one player from the latest to
+	 * the earliest, so the first player of a name is the latest season of the smallest ID.
+	 */
+	static final Comparator<Player> NAME_ORDER = new Comparator<Player>() {
+		@Override
+		public int compare(Player a, Player b) {
+			int compare = a.nameKey.compareTo(b.nameKey);
+			if (compare == 0)
+				compare = a.playerName.compareTo(b.playerName);
+			if (compare == 0)
+				compare = compareIds(a.getID(), b.getID());
+			return compare != 0 ? compare : Integer.compare(b.season, a.season);
+		}
+	};
+	/**
+	 * Orders players by their ID and the seasons of one player from the earliest to the latest.
+	 */
+	static final Comparator<Player> ID_ORDER = new Comparator<Player>() {
+		@Override
+		public int compare(Player a, Player b) {
+			int compare = compareIds(a.getID(), b.getID());
+			return compare != 0 ? compare : Integer.compare(a.season, b.season);
+		}
+	};
+
+	/**
+	 * Orders a null ID before all others, so that these orders and the orders of Stat stay total for
+	 * players without an ID.
+	 */
+	static int compareIds(String a, String b) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		return a.compareTo(b);
+	}
+	/**
+	 * Orders the seasons of one player from the earliest to the latest.
+	 */
+	private static final Comparator<Player> SEASON_ORDER = new Comparator<Player>() {
+		@Override
+		public int compare(Player a, Player b) {
+			return Integer.compare(a.season, b.season);
+		}
+	};
+	private static final PersistentRedBlackTree<Player> NO_TEAM = new PersistentRedBlackTree<Player>(NAME_ORDER);
+
+	/**
+	 * One consistent version of all indexes. An Indexes object and the trees and maps it refers to
+	 * are never changed once it is published, so readers use it without locks. A write builds the
+	 * next version from the current one with path-copying tree updates, which share all untouched
+	 * nodes, and publishes it with a single volatile write.
+	 */
+	static final class Indexes {
+		final long version;
+		final PersistentRedBlackTree<Player> names;
+		final Map<String, PersistentRedBlackTree<Player>> teams;
+		final Map<Stat, PersistentRedBlackTree<Player>> stats;
+		// the seasons of every player by ID, each list unmodifiable and ordered by SEASON_ORDER
+		final PersistentHashMap<String, List<Player>> histories;
+		// the lower case names of the players, and of players that have since been removed. It is
+		// built by the first fuzzy search and then carried over to the next versions by the writes.
+		private volatile BKTree fuzzyNames;
+		// the stat vectors of the players, built by the first similarity search and then carried over
+		// to the next versions by the writes until it has had too many changes, see KdTree
+		private volatile KdTree statVectors;
+		// the aggregates of every stat over this version, computed by the first request for them
+		private final AtomicReferenceArray<StatAggregates> aggregates = new AtomicReferenceArray<StatAggregates>(
+				Stat.values().length);
+
+		/**
+		 * Creates the first version of the indexes.
+		 */
+		Indexes(PersistentRedBlackTree<Player> names, Map<String, PersistentRedBlackTree<Player>> teams,
+				Map<Stat, PersistentRedBlackTree<Player>> stats, PersistentHashMap<String, List<Player>> histories) {
+			this(0, names, teams, stats, histories, null, null);
+		}
+
+		Indexes(long version, PersistentRedBlackTree<Player> names,
+				Map<String, PersistentRedBlackTree<Player>> teams, Map<Stat, PersistentRedBlackTree<Player>> stats,
+				PersistentHashMap<String, List<Player>> histories, BKTree fuzzyNames, KdTree statVectors) {
+			this.version = version;
+			this.names = names;
+			this.teams = teams;
+			this.stats = stats;
+			this.histories = histories;
+			this.fuzzyNames = fuzzyNames;
+			this.statVectors = statVectors;
+		}
+
+		/**
+		 * @return the fuzzy name index, which is built from the names on the first call
+		 */
+		BKTree fuzzyNames() {
+			BKTree tree = this.fuzzyNames;
+			if (tree == null) {
+				synchronized (this) {
+					tree = this.fuzzyNames;
+					if (tree == null) {
+						tree = BKTree.buildFrom(nameKeys(this.names));
+						this.fuzzyNames = tree;
+					}
+				}
+			}
+			return tree;
+		}
+
+		/**
+		 * @return the k-d tree of the stat vectors, which is built from the names on the first call
+		 *         unless an earlier version passed it on
+		 */
+		KdTree statVectors() {
+			KdTree tree = this.statVectors;
+			if (tree == null) {
+				synchronized (this) {
+					tree = this.statVectors;
+					if (tree == null) {
+						tree = KdTree.buildFrom(this.names);
+						this.statVectors = tree;
+					}
+				}
+			}
+			return tree;
+		}
+	}
+
+	/**
+	 * Groups player rows by ID, in the order the IDs first appear. A row with the same ID and season
+	 * as an earlier row replaces it, the way upsert does, so a data set with repeated rows still
+	 * loads.
+	 */
+	static Map<String, List<Player>> groupById(Iterable<Player> rows) {
+		Map<String, List<Player>> groups = new LinkedHashMap<String, List<Player>>();
+		for (Player p : rows) {
+			List<Player> seasons = groups.get(p.getID());
+			if (seasons == null) {
+				seasons = new ArrayList<Player>(1);
+				groups.put(p.getID(), seasons);
+			}
+			int same = indexOfSeason(seasons, p.season);
+			if (same < 0) {
+				seasons.add(p);
+			} else {
+				seasons.set(same, p);
+			}
+		}
+		return groups;
+	}
+
+	private static int indexOfSeason(List<Player> seasons, int season) {
+		for (int i = 0; i < seasons.size(); i++) {
+			if (seasons.get(i).season == season) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the players of the groups made by groupById
+	 */
+	static List<Player> rows(Map<String, List<Player>> groups) {
+		List<Player> rows = new ArrayList<Player>();
+		for (List<Player> seasons : groups.values()) {
+			rows.addAll(seasons);
+		}
+		return rows;
+	}
 
+	/**
+	 * Builds the ID index from the groups made by groupById. Players without an ID cannot be looked
+	 * up by ID, so they have no history.
+	 */
+	static PersistentHashMap<String, List<Player>> histories(Map<String, List<Player>> groups) {
+		PersistentHashMap<String, List<Player>> histories = new PersistentHashMap<String, List<Player>>();
+		for (Map.Entry<String, List<Player>> group : groups.entrySet()) {
+			if (group.getKey() != null) {
+				histories = histories.put(group.getKey(), history(group.getValue()));
+			}
+		}
+		return histories;
+	}
+
+	private static List<Player> history(List<Player> seasons) {
+		List<Player> history = new ArrayList<Player>(seasons);
+		Collections.sort(history, SEASON_ORDER);
+		return Collections.unmodifiableList(history);
+	}
+
+	/**
+	 * @return the aggregates of a stat from the cache, computing and caching them when they are not
+	 *         there yet. The lock makes concurrent first requests wait for one computation.
+	 */
+	private static StatAggregates aggregates(AtomicReferenceArray<StatAggregates> cache, Object lock, Stat stat,
+			StatAggregates.Source leaderboard, Collection<String> teamKeys) {
+		StatAggregates aggregates = cache.get(stat.ordinal());
+		if (aggregates == null) {
+			synchronized (lock) {
+				aggregates = cache.get(stat.ordinal());
+				if (aggregates == null) {
+					aggregates = StatAggregates.compute(stat, leaderboard, teamKeys, ForkJoinPool.commonPool());
+					cache.set(stat.ordinal(), aggregates);
+				}
+			}
+		}
+		return aggregates;
+	}
+
+	private static List<String> nameKeys(Iterable<Player> players) {
+		List<String> keys = new ArrayList<String>();
+		for (Player p : players) {
+			keys.add(p.nameKey);
+		}
+		return keys;
+	}
+
+	/**
+	 * The system property that selects where the indexes are kept: "heap" (the default) for the
+	 * persistent trees, which support updates, or "mapped" for a read-only MappedPlayerIndex in a
+	 * file next to the data set, for data sets that are too large for the heap.
+	 */
+	public static final String INDEX_PROPERTY = "backend.index";
+	public static final String MAPPED_INDEX = "mapped";
+	private static final String MAPPED_INDEX_SUFFIX = ".idx";
+
+	private volatile Indexes indexes; // null while the mapped index is used
+	private volatile MappedPlayerIndex mapped; // null when the heap indexes are used
+	// true when the mapped index is a snapshot, which the first write replaces by heap indexes
+	private final boolean snapshot;
+	// the fuzzy name index of the mapped index, built by the first fuzzy search
+	private volatile BKTree mappedFuzzyNames;
+	// the stat vectors of the mapped index, built by the first similarity search
+	private volatile KdTree mappedStatVectors;
+	// the aggregates of the mapped index, which never changes
+	private final AtomicReferenceArray<StatAggregates> mappedAggregates = new AtomicReferenceArray<StatAggregates>(
+			Stat.values().length);
+	// the number of players of the team of the most recent team search by any thread
+	private volatile int teamPlayers;
+	private final BackendMetrics metrics = new BackendMetrics(this);
+
+	/**
+	 * Loads the data set whose path is the first argument. With the system property
+	 * backend.index=mapped the players are served from a MappedPlayerIndex in the file
+	 * &lt;data set&gt;.idx, which is written first when it is missing or older than the data set.
+	 */
 	public Backend(String[] args) throws FileNotFoundException, IOException, DataFormatException {
-		BufferedReader reader = new BufferedReader(new FileReader(args[0]));
-		this.playerData = statsReader.readDataSet(reader);
-		this.defaultTree = new RedBlackTree<Player>();
-		this.dynamicTree = new RedBlackTree<Player>();
-		for (Player p : playerData) {
-			defaultTree.insert(p);
+		long start = System.nanoTime();
+		Path dataFile = Paths.get(args[0]);
+		if (MAPPED_INDEX.equals(System.getProperty(INDEX_PROPERTY))) {
+			this.mapped = openMappedIndex(dataFile);
+		} else {
+			this.indexes = readIndexes(dataFile);
 		}
+		this.snapshot = false;
+		this.metrics.record(BackendMetrics.Operation.LOAD, System.nanoTime() - start, 0);
+	}
+
+	private Backend(MappedPlayerIndex snapshot) {
+		this.mapped = snapshot;
+		this.snapshot = true;
 	}
 
+	private static MappedPlayerIndex openMappedIndex(Path dataFile)
+			throws FileNotFoundException, IOException, DataFormatException {
+		Path indexFile = Paths.get(dataFile + MAPPED_INDEX_SUFFIX);
+		if (!Files.exists(dataFile)) {
+			throw new FileNotFoundException(dataFile.toString());
+		}
+		if (Files.exists(indexFile)
+				&& Files.getLastModifiedTime(indexFile).compareTo(Files.getLastModifiedTime(dataFile)) >= 0) {
+			try {
+				return MappedPlayerIndex.open(indexFile);
+			} catch (DataFormatException e) {
+				// written in another format version, so it is written again below
+			}
+		}
+		// the rows are kept in columns rather than as players until the index is written, so that a
+		// data set that is too large for the heap indexes can still be indexed
+		final PlayerStore rows = new PlayerStore();
+		new ParallelPlayerReader().readDataSet(dataFile, new Consumer<Player>() {
+			@Override
+			public void accept(Player p) {
+				rows.add(p);
+			}
+		});
+		rows.removeReplacedRows();
+		MappedPlayerIndex.write(rows, indexFile);
+		return MappedPlayerIndex.open(indexFile);
+	}
+
+	private static List<Player> readPlayers(Path dataFile) throws FileNotFoundException, IOException, DataFormatException {
+		final List<Player> players = new ArrayList<Player>();
+		new ParallelPlayerReader().readDataSet(dataFile, new Consumer<Player>() {
+			@Override
+			public void accept(Player p) {
+				players.add(p);
+			}
+		});
+		return players;
+	}
+
+	private static Indexes readIndexes(Path dataFile) throws FileNotFoundException, IOException, DataFormatException {
+		// the parsed players are only collected as references and grouped by ID and by team, and
+		// every index is then built bottom-up from its sorted values in one pass
+		Map<String, List<Player>> groups = groupById(readPlayers(dataFile));
+		List<Player> players = rows(groups);
+		Map<String, List<Player>> teams = new HashMap<String, List<Player>>();
+		for (Player p : players) {
+			if (p.teamKey != null) {
+				List<Player> team = teams.get(p.teamKey);
+				if (team == null) {
+					team = new ArrayList<Player>();
+					teams.put(p.teamKey, team);
+				}
+				team.add(p);
+			}
+		}
+		Map<String, PersistentRedBlackTree<Player>> teamIndex = new HashMap<String, PersistentRedBlackTree<Player>>();
+		for (Map.Entry<String, List<Player>> team : teams.entrySet()) {
+			teamIndex.put(team.getKey(), PersistentRedBlackTree.buildFrom(team.getValue(), NAME_ORDER));
+		}
+		Map<Stat, PersistentRedBlackTree<Player>> statIndex = new EnumMap<Stat, PersistentRedBlackTree<Player>>(
+				Stat.class);
+		for (Stat stat : Stat.values()) {
+			List<Player> withStat = new ArrayList<Player>(players.size());
+			for (Player p : players) {
+				if (!Double.isNaN(stat.get(p))) {
+					withStat.add(p);
+				}
+			}
+			statIndex.put(stat, PersistentRedBlackTree.buildFrom(withStat, stat.order));
+		}
+		return new Indexes(PersistentRedBlackTree.buildFrom(players, NAME_ORDER),
+				Collections.unmodifiableMap(teamIndex), Collections.unmodifiableMap(statIndex), histories(groups));
+	}
+
+	/**
+	 * Creates a Backend from a snapshot written by saveSnapshot. The snapshot is a MappedPlayerIndex
+	 * file, so loading only maps it and checks its header: the start takes milliseconds whatever
+	 * the number of players, and reads are served from the mapped records like with
+	 * backend.index=mapped, creating only the players that a search returns. The first upsert or
+	 * remove builds the heap indexes from the stored orders in linear time, without sorting, and
+	 * all later reads and writes use them.
+	 *
+	 * The checksum of the file is not read at startup, since that would read the whole file. Call
+	 * verifySnapshot for snapshots that may have been damaged, for example after copying them.
+	 *
+	 * @throws DataFormatException when the file is not a snapshot or is truncated
+	 */
+	public static Backend loadSnapshot(Path file) throws FileNotFoundException, IOException, DataFormatException {
+		long start = System.nanoTime();
+		Backend backend = new Backend(MappedPlayerIndex.open(file));
+		backend.metrics.record(BackendMetrics.Operation.LOAD, System.nanoTime() - start, 0);
+		return backend;
+	}
+
+	/**
+	 * Reads a whole snapshot file and compares it with its checksum.
+	 *
+	 * @throws DataFormatException when the file is not a snapshot, or is damaged
+	 */
+	public static void verifySnapshot(Path file) throws FileNotFoundException, IOException, DataFormatException {
+		MappedPlayerIndex.verify(file);
+	}
+
+	/**
+	 * Writes the current players to a snapshot file that loadSnapshot can read. The snapshot is
+	 * taken from one version of the players, so writes that happen while it is saved are not part
+	 * of it.
+	 */
+	public void saveSnapshot(Path file) throws IOException {
+		MappedPlayerIndex mapped = this.mapped;
+		Iterable<Player> version = mapped != null ? mapped : this.indexes.names;
+		List<Player> players = new ArrayList<Player>(getTotalPlayers());
+		for (Player p : version) {
+			players.add(p);
+		}
+		MappedPlayerIndex.write(players, file);
+	}
+
+	/**
+	 * @throws UnsupportedOperationException when the mapped index of a data set is used, which
+	 *                                       cannot be changed
+	 */
+	private void checkHeapIndexes() {
+		if (this.mapped != null && !this.snapshot) {
+			throw new UnsupportedOperationException("The mapped index is read-only, use " + INDEX_PROPERTY
+					+ "=heap to change players.");
+		}
+	}
+
+	/**
+	 * Returns the heap indexes for a write, building them first when this Backend still reads
+	 * from its snapshot. Only called by the synchronized writes.
+	 */
+	private Indexes heapIndexes() {
+		MappedPlayerIndex mapped = this.mapped;
+		if (mapped != null) {
+			// the indexes are published before the mapped index is dropped, so a reader that no
+			// longer sees the mapped index always finds them
+			this.indexes = readIndexes(mapped);
+			this.mapped = null;
+		}
+		return this.indexes;
+	}
+
+	/**
+	 * Builds the heap indexes from a mapped index. Every player is created once and shared by all
+	 * trees, and every tree is built in linear time from the order stored in the file.
+	 */
+	private static Indexes readIndexes(MappedPlayerIndex mapped) {
+		Player[] byRecord = new Player[mapped.size()];
+		int record = 0;
+		for (Player p : mapped) {
+			byRecord[record++] = p;
+		}
+		List<Player> players = Arrays.asList(byRecord);
+		Map<String, PersistentRedBlackTree<Player>> teamIndex = new HashMap<String, PersistentRedBlackTree<Player>>();
+		for (String teamKey : mapped.teamKeys()) {
+			teamIndex.put(teamKey, PersistentRedBlackTree.fromSorted(players(mapped.team(teamKey), byRecord), NAME_ORDER));
+		}
+		Map<Stat, PersistentRedBlackTree<Player>> statIndex = new EnumMap<Stat, PersistentRedBlackTree<Player>>(
+				Stat.class);
+		for (Stat stat : Stat.values()) {
+			statIndex.put(stat, PersistentRedBlackTree.fromSorted(players(mapped.stat(stat), byRecord), stat.order));
+		}
+		return new Indexes(PersistentRedBlackTree.fromSorted(players, NAME_ORDER),
+				Collections.unmodifiableMap(teamIndex), Collections.unmodifiableMap(statIndex),
+				histories(groupById(players)));
+	}
+
+	/**
+	 * @return the players of a view of a mapped index in its order, taken from the players of the
+	 *         name order by their record numbers
+	 */
+	private static List<Player> players(MappedPlayerIndex view, Player[] byRecord) {
+		List<Player> players = new ArrayList<Player>(view.size());
+		for (int i = 0; i < view.size(); i++) {
+			players.add(byRecord[view.record(i)]);
+		}
+		return players;
+	}
+
+	/**
+	 * @return the number of player rows, which counts every season of a player
+	 */
 	@Override
 	public int getTotalPlayers() {
-		return this.defaultTree.size();
+		MappedPlayerIndex mapped = this.mapped;
+		return mapped != null ? mapped.size() : this.indexes.names.size();
 	}
 
 	public int getTotalTeamPlayers() {
-		return this.dynamicTree.size();
+		return this.teamPlayers;
+	}
+
+	/**
+	 * @return the counters, latency histograms and gauges of this backend
+	 */
+	public BackendMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @return the height of the name tree, or -1 when the mapped index is used
+	 */
+	int nameTreeHeight() {
+		MappedPlayerIndex mapped = this.mapped;
+		return mapped != null ? -1 : this.indexes.names.height();
+	}
+
+	/**
+	 * @return the black height of the name tree, or -1 when the mapped index is used
+	 */
+	int nameTreeBlackHeight() {
+		MappedPlayerIndex mapped = this.mapped;
+		return mapped != null ? -1 : this.indexes.names.blackHeight();
+	}
+
+	/**
+	 * @return the version of the players, which grows by one with every upsert or remove. It is
+	 *         always 0 with the mapped index, which cannot be changed.
+	 */
+	public long getVersion() {
+		MappedPlayerIndex mapped = this.mapped;
+		return mapped != null ? 0 : this.indexes.version;
+	}
+
+	/**
+	 * Adds a player season, or replaces the season with the same ID and season, for example after a
+	 * trade or a new box score. Several players may have the same name. The name, team, stat and ID
+	 * indexes are updated incrementally instead of being rebuilt and the new version is published at
+	 * once, so concurrent searches see either the old or the new player but never a mix. Indexed
+	 * players must not be changed, an update is passed as a new Player object.
+	 *
+	 * @param p the new or updated player season
+	 * @return the player season that was replaced, or null if the ID and season were new
+	 * @throws UnsupportedOperationException when the mapped index of a data set is used
+	 */
+	public synchronized Player upsert(Player p) {
+		checkHeapIndexes();
+		if (p == null) {
+			throw new NullPointerException("Cannot add a null player.");
+		}
+		Indexes current = heapIndexes();
+		Player previous = season(current.histories.get(p.getID()), p.season);
+		this.indexes = index(previous == null ? current : unindex(current, previous), p);
+		return previous;
+	}
+
+	/**
+	 * Removes every season of the player with the given ID from all indexes.
+	 *
+	 * @return the latest removed season, or null if there is no player with that ID
+	 * @throws UnsupportedOperationException when the mapped index of a data set is used
+	 */
+	public synchronized Player remove(String id) {
+		checkHeapIndexes();
+		if (id == null) {
+			return null;
+		}
+		Indexes current = heapIndexes();
+		List<Player> history = current.histories.get(id);
+		if (history == null) {
+			return null;
+		}
+		for (Player p : history) {
+			current = unindex(current, p);
+		}
+		this.indexes = current;
+		return history.get(history.size() - 1);
+	}
+
+	/**
+	 * Removes one season of the player with the given ID from all indexes.
+	 *
+	 * @return the removed season, or null if the player has no such season
+	 * @throws UnsupportedOperationException when the mapped index of a data set is used
+	 */
+	public synchronized Player remove(String id, int season) {
+		checkHeapIndexes();
+		if (id == null) {
+			return null;
+		}
+		Indexes current = heapIndexes();
+		Player p = season(current.histories.get(id), season);
+		if (p != null) {
+			this.indexes = unindex(current, p);
+		}
+		return p;
+	}
+
+	private static Player season(List<Player> history, int season) {
+		int index = history == null ? -1 : indexOfSeason(history, season);
+		return index < 0 ? null : history.get(index);
+	}
+
+	/**
+	 * @return the next version of the indexes, which also holds the given player
+	 */
+	private static Indexes index(Indexes current, Player p) {
+		Map<String, PersistentRedBlackTree<Player>> teams = current.teams;
+		if (p.teamKey != null) {
+			PersistentRedBlackTree<Player> teamTree = teams.get(p.teamKey);
+			if (teamTree == null) {
+				teamTree = NO_TEAM;
+			}
+			teams = new HashMap<String, PersistentRedBlackTree<Player>>(teams);
+			teams.put(p.teamKey, teamTree.insert(p));
+			teams = Collections.unmodifiableMap(teams);
+		}
+		Map<Stat, PersistentRedBlackTree<Player>> stats = new EnumMap<Stat, PersistentRedBlackTree<Player>>(
+				current.stats);
+		for (Stat stat : Stat.values()) {
+			if (!Double.isNaN(stat.get(p))) {
+				stats.put(stat, stats.get(stat).insert(p));
+			}
+		}
+		List<Player> history = current.histories.get(p.getID());
+		List<Player> seasons = history == null ? new ArrayList<Player>(1) : new ArrayList<Player>(history);
+		seasons.add(p);
+		return new Indexes(current.version + 1, current.names.insert(p), teams, Collections.unmodifiableMap(stats),
+				current.histories.put(p.getID(), history(seasons)),
+				current.fuzzyNames == null ? null : current.fuzzyNames.insert(p.nameKey),
+				current.statVectors == null ? null : current.statVectors.with(p));
+	}
+
+	/**
+	 * @return the next version of the indexes, without the given player. A team tree is dropped
+	 *         once its last player is gone.
+	 */
+	private static Indexes unindex(Indexes current, Player p) {
+		Map<String, PersistentRedBlackTree<Player>> teams = current.teams;
+		if (p.teamKey != null) {
+			PersistentRedBlackTree<Player> teamTree = teams.get(p.teamKey).remove(p);
+			teams = new HashMap<String, PersistentRedBlackTree<Player>>(teams);
+			if (teamTree.isEmpty()) {
+				teams.remove(p.teamKey);
+			} else {
+				teams.put(p.teamKey, teamTree);
+			}
+			teams = Collections.unmodifiableMap(teams);
+		}
+		Map<Stat, PersistentRedBlackTree<Player>> stats = new EnumMap<Stat, PersistentRedBlackTree<Player>>(
+				current.stats);
+		for (Stat stat : Stat.values()) {
+			if (!Double.isNaN(stat.get(p))) {
+				stats.put(stat, stats.get(stat).remove(p));
+			}
+		}
+		List<Player> seasons = new ArrayList<Player>(current.histories.get(p.getID()));
+		seasons.remove(p);
+		PersistentHashMap<String, List<Player>> histories = seasons.isEmpty() ? current.histories.remove(p.getID())
+				: current.histories.put(p.getID(), Collections.unmodifiableList(seasons));
+		return new Indexes(current.version + 1, current.names.remove(p), teams, Collections.unmodifiableMap(stats),
+				histories, current.fuzzyNames, current.statVectors == null ? null : current.statVectors.without(p));
 	}
 
+	/**
+	 * Returns the player with the given name, ignoring case. When several players or seasons have
+	 * the name, this is the latest season of the player with the smallest ID, see searchAllByName.
+	 */
 	@Override
 	public Player searchByName(String name) {
+		MappedPlayerIndex mapped = this.mapped;
 		if (name == null) {
 			return null;
 		}
-		for (Player p : this.defaultTree) {
-			if (p.playerName.toLowerCase().equals(name)) {
-				return p;
+		long start = System.nanoTime();
+		NameKey key = nameKey(name);
+		// the range starts at the first player of the name
+		Iterator<Player> sameName = mapped != null ? mapped.rangeIterator(key, null)
+				: this.indexes.names.rangeIterator(key, null);
+		Player p = sameName.hasNext() ? sameName.next() : null;
+		if (p != null && !p.nameKey.equals(key.key)) {
+			p = null;
+		}
+		this.metrics.record(BackendMetrics.Operation.SEARCH_BY_NAME, System.nanoTime() - start, key.comparisons);
+		return p;
+	}
+
+	/**
+	 * Answers searchByName for a whole batch of names. The distinct lower case names are sorted and
+	 * looked up in one pass over the name order, each lookup continuing from the one before it, so
+	 * a batch costs far less than a descent from the root for every name.
+	 *
+	 * @param names the names to search, ignoring case. Null names are ignored.
+	 * @return every given name that matches a player, in the order given, mapped to the player that
+	 *         searchByName returns for it
+	 */
+	public Map<String, Player> searchByNames(Collection<String> names) {
+		MappedPlayerIndex mapped = this.mapped;
+		// the lower case names map to their players, and to null until they are looked up
+		String[] keys = new String[names.size()];
+		Map<String, Player> players = new HashMap<String, Player>();
+		int i = 0;
+		for (String name : names) {
+			if (name != null) {
+				keys[i] = name.toLowerCase();
+				players.put(keys[i], null);
 			}
+			i++;
 		}
-		return null;
+		String[] sortedKeys = players.keySet().toArray(new String[0]);
+		Arrays.sort(sortedKeys);
+		List<NameKey> probes = new ArrayList<NameKey>(sortedKeys.length);
+		for (String key : sortedKeys) {
+			probes.add(nameKey(key));
+		}
+		List<Player> ceilings = mapped != null ? mapped.ceilings(probes)
+				: this.indexes.names.ceilings(probes);
+		for (int j = 0; j < sortedKeys.length; j++) {
+			Player p = ceilings.get(j);
+			if (p != null && p.nameKey.equals(sortedKeys[j])) {
+				players.put(sortedKeys[j], p);
+			}
+		}
+		Map<String, Player> results = new LinkedHashMap<String, Player>();
+		i = 0;
+		for (String name : names) {
+			String key = keys[i++];
+			Player p = key == null ? null : players.get(key);
+			if (p != null) {
+				results.put(name, p);
+			}
+		}
+		return results;
 	}
 
-	@Override
-	public List<Player> searchByTeam(String team) {
-		this.clearTeamTree();
-		if (team == null) {
+	/**
+	 * Returns every player and season with the given name, ignoring case, ordered by ID and the
+	 * seasons of one player from the latest to the earliest.
+	 */
+	public List<Player> searchAllByName(String name) {
+		MappedPlayerIndex mapped = this.mapped;
+		List<Player> results = new ArrayList<Player>();
+		if (name == null) {
+			return results;
+		}
+		NameKey key = nameKey(name);
+		Iterator<Player> sameName = mapped != null ? mapped.rangeIterator(key, null)
+				: this.indexes.names.rangeIterator(key, null);
+		while (sameName.hasNext()) {
+			Player p = sameName.next();
+			if (!p.nameKey.equals(key.key)) {
+				break;
+			}
+			results.add(p);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the latest season of the player with the given ID. With the heap indexes this is a
+	 * hash lookup, with the mapped index a binary search over the ID order.
+	 *
+	 * @return the player, or null if there is no player with that ID
+	 */
+	public Player searchById(String id) {
+		List<Player> history = getHistory(id);
+		return history == null ? null : history.get(history.size() - 1);
+	}
+
+	/**
+	 * Returns all seasons of the player with the given ID, from the earliest to the latest. The
+	 * returned list is unmodifiable.
+	 *
+	 * @return the seasons, or null if there is no player with that ID
+	 */
+	public List<Player> getHistory(String id) {
+		MappedPlayerIndex mapped = this.mapped;
+		if (id == null) {
+			return null;
+		}
+		if (mapped == null) {
+			return this.indexes.histories.get(id);
+		}
+		MappedPlayerIndex seasons = mapped.history(id);
+		if (seasons == null) {
 			return null;
 		}
+		List<Player> history = new ArrayList<Player>(seasons.size());
+		for (Player p : seasons) {
+			history.add(p);
+		}
+		return Collections.unmodifiableList(history);
+	}
+
+	/**
+	 * Returns the players whose names lie between from (inclusive) and to (exclusive), ignoring
+	 * case, in name order. Either bound may be null to leave that side of the range open.
+	 */
+	public List<Player> searchByNameRange(String from, String to) {
+		MappedPlayerIndex mapped = this.mapped;
+		List<Player> results = new ArrayList<Player>();
+		Comparable<Player> fromKey = from == null ? null : nameKey(from);
+		Comparable<Player> toKey = to == null ? null : nameKey(to);
+		Iterator<Player> range = mapped != null ? mapped.rangeIterator(fromKey, toKey)
+				: this.indexes.names.rangeIterator(fromKey, toKey);
+		while (range.hasNext()) {
+			results.add(range.next());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns up to limit players whose names start with the given prefix, ignoring case, in name
+	 * order. The matching names form one contiguous range of the name-ordered tree, so this takes
+	 * a single descent to the first match followed by a walk over the returned players only.
+	 */
+	public List<Player> searchByPrefix(String prefix, int limit) {
+		MappedPlayerIndex mapped = this.mapped;
 		List<Player> results = new ArrayList<Player>();
-		for (Player p : this.defaultTree) {
-			if (p.teamName.toLowerCase().equals(team)) {
-				results.add(p);
+		if (prefix == null || limit <= 0) {
+			return results;
+		}
+		String key = prefix.toLowerCase();
+		Iterator<Player> range = mapped != null ? mapped.rangeIterator(nameKey(key), null)
+				: this.indexes.names.rangeIterator(nameKey(key), null);
+		while (range.hasNext() && results.size() < limit) {
+			Player p = range.next();
+			if (!p.nameKey.startsWith(key)) {
+				break;
 			}
+			results.add(p);
 		}
-		if (results.size() == 0) {
-			return null;
-		} else {
+		return results;
+	}
+
+	/**
+	 * Returns up to limit players whose names are within maxEdits insertions, deletions or
+	 * substitutions of the query, ignoring case, closest first and equally close players in name
+	 * order. The candidate names come from a BK-tree over all names, which skips every subtree that
+	 * cannot hold a close enough name, so only a small part of the names is compared to the query.
+	 * A player is returned once, with the latest of its seasons that has the name.
+	 */
+	public List<Player> searchFuzzy(String query, int maxEdits, int limit) {
+		MappedPlayerIndex mapped = this.mapped;
+		List<Player> results = new ArrayList<Player>();
+		if (query == null || limit <= 0) {
 			return results;
 		}
+		Set<String> found = new HashSet<String>();
+		Indexes current = this.indexes;
+		BKTree fuzzyNames = mapped != null ? mappedFuzzyNames(mapped) : current.fuzzyNames();
+		for (BKTree.Match match : fuzzyNames.search(query.toLowerCase(), maxEdits)) {
+			// the players with this name, none if the name belonged to a player that was removed
+			Iterator<Player> sameName = mapped != null ? mapped.rangeIterator(nameKey(match.key), null)
+					: current.names.rangeIterator(nameKey(match.key), null);
+			while (sameName.hasNext() && results.size() < limit) {
+				Player p = sameName.next();
+				if (!p.nameKey.equals(match.key)) {
+					break;
+				}
+				if (found.add(p.getID())) {
+					results.add(p);
+				}
+			}
+			if (results.size() == limit) {
+				break;
+			}
+		}
+		return results;
 	}
 
-	private void clearTeamTree() {
-		this.dynamicTree = new RedBlackTree<Player>();
+	/**
+	 * Returns the k players whose PPG, RPG and APG are most similar to those of the given player,
+	 * closest first. The stats are compared as z-scores, so every stat counts by how unusual a
+	 * difference is rather than by its raw size. Other seasons of the same player are not returned.
+	 * The players come from a k-d tree over the stat vectors, which skips every part of the stat
+	 * space that cannot hold a closer player, so a search looks at a few dozen players even among
+	 * millions. The tree is built by the first search, and upsert and remove then only note the
+	 * changed players next to it, which every search also checks. After about 4 sqrt(n) changes
+	 * the next search builds the tree again, so under steady writes each write pays a small share
+	 * of an O(n log n) build rather than every search after a write paying all of it.
+	 *
+	 * @param p the player to compare with, who does not need to be indexed
+	 * @return the similar players, none when p lacks a stat. Players without all three stats are
+	 *         never returned.
+	 */
+	public List<Player> similarPlayers(Player p, int k) {
+		MappedPlayerIndex mapped = this.mapped;
+		if (p == null) {
+			throw new NullPointerException("Cannot compare with a null player.");
+		}
+		KdTree statVectors = mapped != null ? mappedStatVectors(mapped) : this.indexes.statVectors();
+		return statVectors.nearest(p, k, p.getID());
+	}
+
+	private KdTree mappedStatVectors(MappedPlayerIndex mapped) {
+		KdTree statVectors = this.mappedStatVectors;
+		if (statVectors == null) {
+			synchronized (this) {
+				statVectors = this.mappedStatVectors;
+				if (statVectors == null) {
+					statVectors = KdTree.buildFrom(mapped);
+					this.mappedStatVectors = statVectors;
+				}
+			}
+		}
+		return statVectors;
+	}
+
+	private BKTree mappedFuzzyNames(MappedPlayerIndex mapped) {
+		BKTree fuzzyNames = this.mappedFuzzyNames;
+		if (fuzzyNames == null) {
+			synchronized (this) {
+				fuzzyNames = this.mappedFuzzyNames;
+				if (fuzzyNames == null) {
+					fuzzyNames = BKTree.buildFrom(nameKeys(mapped));
+					this.mappedFuzzyNames = fuzzyNames;
+				}
+			}
+		}
+		return fuzzyNames;
+	}
+
+	/**
+	 * Returns one page of the players in name order without walking over the players that come
+	 * before the page.
+	 *
+	 * @param offset the number of players to skip
+	 * @param limit  the maximum number of players to return
+	 */
+	public List<Player> listPlayers(int offset, int limit) {
+		MappedPlayerIndex mapped = this.mapped;
+		List<Player> results = new ArrayList<Player>();
+		if (offset < 0 || limit <= 0 || offset >= getTotalPlayers()) {
+			return results;
+		}
+		Iterator<Player> page = mapped != null ? mapped.iteratorFrom(offset)
+				: this.indexes.names.iteratorFrom(offset);
+		while (page.hasNext() && results.size() < limit) {
+			results.add(page.next());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the n players with the highest value of the given stat, highest first. Every season of
+	 * a player is ranked separately. Players with equal values are ordered by ID.
+	 */
+	public List<Player> topN(Stat stat, int n) {
+		MappedPlayerIndex mapped = this.mapped;
+		List<Player> results = new ArrayList<Player>();
+		Iterator<Player> leaders = mapped != null ? mapped.stat(stat).iterator()
+				: this.indexes.stats.get(stat).iterator();
+		while (leaders.hasNext() && results.size() < n) {
+			results.add(leaders.next());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the players whose value of the given stat lies between lo and hi (both inclusive),
+	 * highest first.
+	 */
+	public List<Player> statRange(final Stat stat, final double lo, final double hi) {
+		MappedPlayerIndex mapped = this.mapped;
+		List<Player> results = new ArrayList<Player>();
+		// the stat trees are ordered from high to low, so the range starts at the first value that
+		// is at most hi and ends before the first value that is below lo
+		Comparable<Player> from = new Comparable<Player>() {
+			@Override
+			public int compareTo(Player p) {
+				return stat.get(p) <= hi ? -1 : 1;
+			}
+		};
+		Comparable<Player> to = new Comparable<Player>() {
+			@Override
+			public int compareTo(Player p) {
+				return stat.get(p) < lo ? -1 : 1;
+			}
+		};
+		Iterator<Player> range = mapped != null ? mapped.stat(stat).rangeIterator(from, to)
+				: this.indexes.stats.get(stat).rangeIterator(from, to);
+		while (range.hasNext()) {
+			results.add(range.next());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the players that satisfy a query, in name order. The query is planned against one
+	 * version of the indexes: the index range that selects the fewest players is read and only
+	 * those players are checked against the whole query, so the time follows the number of players
+	 * in that range rather than the number of all players. See PlayerQuery.
+	 */
+	public List<Player> query(PlayerQuery query) {
+		if (query == null) {
+			throw new NullPointerException("Cannot run a null query.");
+		}
+		// a reader that sees no mapped index finds the heap indexes, see heapIndexes
+		final MappedPlayerIndex mapped = this.mapped;
+		final Indexes current = this.indexes;
+		PlayerQuery.Plan plan = query.plan(new PlayerQuery.Access() {
+			@Override
+			public PlayerQuery.Plan team(String teamKey) {
+				if (mapped != null) {
+					MappedPlayerIndex team = mapped.team(teamKey);
+					return team == null ? null : new PlayerQuery.Plan(team.size(), team);
+				}
+				PersistentRedBlackTree<Player> team = current.teams.get(teamKey);
+				return team == null ? null : new PlayerQuery.Plan(team.size(), team);
+			}
+
+			@Override
+			public PlayerQuery.Plan names(Comparable<Player> from, Comparable<Player> to) {
+				return mapped != null ? range(mapped, from, to) : range(current.names, from, to);
+			}
+
+			@Override
+			public PlayerQuery.Plan stat(Stat stat, Comparable<Player> from, Comparable<Player> to) {
+				return mapped != null ? range(mapped.stat(stat), from, to) : range(current.stats.get(stat), from, to);
+			}
+		});
+		Iterable<Player> all = mapped != null ? mapped : current.names;
+		List<Player> results = new ArrayList<Player>();
+		for (Iterable<Player> part : plan == null ? Collections.singletonList(all) : plan.parts) {
+			for (Player p : part) {
+				if (query.matches(p)) {
+					results.add(p);
+				}
+			}
+		}
+		// the parts of an or can overlap, and a stat range is in stat order
+		Collections.sort(results, NAME_ORDER);
+		int distinct = 0;
+		for (Player p : results) {
+			if (distinct == 0 || NAME_ORDER.compare(results.get(distinct - 1), p) != 0) {
+				results.set(distinct++, p);
+			}
+		}
+		return new ArrayList<Player>(results.subList(0, distinct));
+	}
+
+	private static PlayerQuery.Plan range(final PersistentRedBlackTree<Player> tree, final Comparable<Player> from,
+			final Comparable<Player> to) {
+		return new PlayerQuery.Plan(Math.max(0, tree.rank(to) - tree.rank(from)), new Iterable<Player>() {
+			@Override
+			public Iterator<Player> iterator() {
+				return tree.rangeIterator(from, to);
+			}
+		});
+	}
+
+	private static PlayerQuery.Plan range(final MappedPlayerIndex index, final Comparable<Player> from,
+			final Comparable<Player> to) {
+		return new PlayerQuery.Plan(Math.max(0, index.rank(to) - index.rank(from)), new Iterable<Player>() {
+			@Override
+			public Iterator<Player> iterator() {
+				return index.rangeIterator(from, to);
+			}
+		});
+	}
+
+	/**
+	 * Returns the sum, mean, extremes, standard deviation, percentiles and histogram of a stat over
+	 * all players that have it, and for every team. They are computed in parallel on the common
+	 * fork-join pool by the first call for a version of the players, and that version's callers
+	 * then share the result until the next upsert or remove.
+	 */
+	public StatAggregates aggregate(Stat stat) {
+		MappedPlayerIndex mapped = this.mapped;
+		if (stat == null) {
+			throw new NullPointerException("Cannot aggregate a null stat.");
+		}
+		if (mapped != null) {
+			return aggregates(mappedAggregates, mappedAggregates, stat,
+					StatAggregates.Source.of(mapped.stat(stat)), mapped.teamKeys());
+		}
+		Indexes current = this.indexes;
+		return aggregates(current.aggregates, current, stat, StatAggregates.Source.of(current.stats.get(stat)),
+				current.teams.keySet());
+	}
+
+	/**
+	 * A key for the name-ordered trees that compares a lower case name against players. It counts
+	 * its comparisons, which for a lookup is the number of tree nodes visited.
+	 */
+	private static final class NameKey implements Comparable<Player> {
+		private final String key;
+		int comparisons;
+
+		NameKey(String name) {
+			this.key = name.toLowerCase();
+		}
+
+		@Override
+		public int compareTo(Player p) {
+			comparisons++;
+			return key.compareTo(p.nameKey);
+		}
+	}
+
+	private static NameKey nameKey(String name) {
+		return new NameKey(name);
+	}
+
+	/**
+	 * Answers searchByTeam for a whole batch of teams. Every distinct team is looked up once, from
+	 * one version of the indexes, and spellings that only differ in case share one result list.
+	 *
+	 * @param teams the teams to search, ignoring case. Null teams are ignored.
+	 * @return every given team that has players, in the order given, mapped to its players in name
+	 *         order
+	 */
+	public Map<String, List<Player>> searchByTeams(Collection<String> teams) {
+		MappedPlayerIndex mapped = this.mapped;
+		Indexes current = this.indexes;
+		Map<String, List<Player>> lists = new HashMap<String, List<Player>>();
+		Map<String, List<Player>> results = new LinkedHashMap<String, List<Player>>();
+		for (String team : teams) {
+			if (team == null) {
+				continue;
+			}
+			String key = team.toLowerCase();
+			List<Player> players = lists.get(key);
+			if (players == null && !lists.containsKey(key)) {
+				Iterable<Player> teamIndex = mapped != null ? mapped.team(key) : current.teams.get(key);
+				if (teamIndex != null) {
+					players = new ArrayList<Player>();
+					for (Player p : teamIndex) {
+						players.add(p);
+					}
+				}
+				lists.put(key, players);
+			}
+			if (players != null) {
+				results.put(team, players);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public List<Player> searchByTeam(String team) {
+		MappedPlayerIndex mapped = this.mapped;
+		if (team == null) {
+			return null;
+		}
+		long start = System.nanoTime();
+		Iterable<Player> teamIndex;
+		int size;
+		if (mapped != null) {
+			MappedPlayerIndex teamView = mapped.team(team.toLowerCase());
+			teamIndex = teamView;
+			size = teamView == null ? 0 : teamView.size();
+		} else {
+			PersistentRedBlackTree<Player> teamTree = this.indexes.teams.get(team.toLowerCase());
+			teamIndex = teamTree;
+			size = teamTree == null ? 0 : teamTree.size();
+		}
+		this.teamPlayers = size;
+		List<Player> results = null;
+		if (teamIndex != null) {
+			results = new ArrayList<Player>(size);
+			for (Player p : teamIndex) {
+				results.add(p);
+			}
+		}
+		this.metrics.record(BackendMetrics.Operation.SEARCH_BY_TEAM, System.nanoTime() - start, size);
+		return results;
 	}
 }
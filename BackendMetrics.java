@@ -0,0 +1,203 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the operations of a Backend and records their latencies and the number of tree nodes each
+ * one visits. Recording takes two LongAdder increments and one histogram increment, none of which
+ * lock or allocate. The tree gauges are computed when they are read.
+ *
+ * The metrics can be read through the getters, registered as a JMX MBean with register, or
+ * printed as text with dump, also periodically with dumpEvery.
+ */
+public class BackendMetrics implements BackendMetricsMBean {
+
+  /**
+   * The measured operations.
+   */
+  public enum Operation {
+    LOAD, SEARCH_BY_NAME, SEARCH_BY_TEAM
+  }
+
+  private static final class Stats {
+    final LongAdder count = new LongAdder();
+    final LongAdder nodesVisited = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+  }
+
+  private final Backend backend;
+  private final Map<Operation, Stats> stats = new EnumMap<Operation, Stats>(Operation.class);
+
+  BackendMetrics(Backend backend) {
+    this.backend = backend;
+    for (Operation operation : Operation.values()) {
+      stats.put(operation, new Stats());
+    }
+  }
+
+  /**
+   * Records one run of an operation.
+   *
+   * @param nanos        how long it took
+   * @param nodesVisited the number of tree nodes it visited
+   */
+  void record(Operation operation, long nanos, int nodesVisited) {
+    Stats operationStats = stats.get(operation);
+    operationStats.count.increment();
+    operationStats.nodesVisited.add(nodesVisited);
+    operationStats.latency.record(nanos);
+  }
+
+  public long count(Operation operation) {
+    return stats.get(operation).count.sum();
+  }
+
+  public LatencyHistogram latency(Operation operation) {
+    return stats.get(operation).latency;
+  }
+
+  /**
+   * @return the mean number of tree nodes visited by one run of the operation. For a name search
+   *         every visited node is one comparison.
+   */
+  public double nodesVisitedPerQuery(Operation operation) {
+    Stats operationStats = stats.get(operation);
+    long count = operationStats.count.sum();
+    return count == 0 ? 0 : (double) operationStats.nodesVisited.sum() / count;
+  }
+
+  @Override
+  public long getLoadNanos() {
+    return latency(Operation.LOAD).max();
+  }
+
+  @Override
+  public long getSearchByNameCount() {
+    return count(Operation.SEARCH_BY_NAME);
+  }
+
+  @Override
+  public double getSearchByNameMeanNanos() {
+    return latency(Operation.SEARCH_BY_NAME).mean();
+  }
+
+  @Override
+  public long getSearchByNameP99Nanos() {
+    return latency(Operation.SEARCH_BY_NAME).percentile(99);
+  }
+
+  @Override
+  public long getSearchByNameMaxNanos() {
+    return latency(Operation.SEARCH_BY_NAME).max();
+  }
+
+  @Override
+  public double getSearchByNameNodesVisitedPerQuery() {
+    return nodesVisitedPerQuery(Operation.SEARCH_BY_NAME);
+  }
+
+  @Override
+  public long getSearchByTeamCount() {
+    return count(Operation.SEARCH_BY_TEAM);
+  }
+
+  @Override
+  public double getSearchByTeamMeanNanos() {
+    return latency(Operation.SEARCH_BY_TEAM).mean();
+  }
+
+  @Override
+  public long getSearchByTeamP99Nanos() {
+    return latency(Operation.SEARCH_BY_TEAM).percentile(99);
+  }
+
+  @Override
+  public long getSearchByTeamMaxNanos() {
+    return latency(Operation.SEARCH_BY_TEAM).max();
+  }
+
+  @Override
+  public double getSearchByTeamNodesVisitedPerQuery() {
+    return nodesVisitedPerQuery(Operation.SEARCH_BY_TEAM);
+  }
+
+  @Override
+  public int getTotalPlayers() {
+    return backend.getTotalPlayers();
+  }
+
+  /**
+   * @return the height of the name tree, or -1 when the mapped index is used
+   */
+  @Override
+  public int getNameTreeHeight() {
+    return backend.nameTreeHeight();
+  }
+
+  /**
+   * @return the black height of the name tree, or -1 when the mapped index is used
+   */
+  @Override
+  public int getNameTreeBlackHeight() {
+    return backend.nameTreeBlackHeight();
+  }
+
+  @Override
+  public String dump() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("players ").append(getTotalPlayers()).append(", name tree height ").append(getNameTreeHeight())
+        .append(", black height ").append(getNameTreeBlackHeight()).append('\n');
+    for (Operation operation : Operation.values()) {
+      sb.append(operation.name().toLowerCase()).append(": ").append(latency(operation));
+      if (operation != Operation.LOAD)
+        sb.append(", nodes visited per query ").append(String.format("%.1f", nodesVisitedPerQuery(operation)));
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, where JMX clients such as JConsole
+   * can read them.
+   *
+   * @param name the object name, for example "nba:type=Backend"
+   */
+  public ObjectName register(String name) throws JMException {
+    ObjectName objectName = new ObjectName(name);
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  /**
+   * Prints dump to the stream at a fixed rate on a daemon thread.
+   *
+   * @return the executor that prints, shut it down to stop printing
+   */
+  public ScheduledExecutorService dumpEvery(long period, TimeUnit unit, final PrintStream out) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable task) {
+        Thread thread = new Thread(task, "backend-metrics-dump");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        out.print(dump());
+        out.flush();
+      }
+    }, period, period, unit);
+    return executor;
+  }
+}
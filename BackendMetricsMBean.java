@@ -0,0 +1,38 @@
+/**
+ * The management interface of BackendMetrics, as seen through JMX. Latencies are in nanoseconds.
+ */
+public interface BackendMetricsMBean {
+
+  long getLoadNanos();
+
+  long getSearchByNameCount();
+
+  double getSearchByNameMeanNanos();
+
+  long getSearchByNameP99Nanos();
+
+  long getSearchByNameMaxNanos();
+
+  double getSearchByNameNodesVisitedPerQuery();
+
+  long getSearchByTeamCount();
+
+  double getSearchByTeamMeanNanos();
+
+  long getSearchByTeamP99Nanos();
+
+  long getSearchByTeamMaxNanos();
+
+  double getSearchByTeamNodesVisitedPerQuery();
+
+  int getTotalPlayers();
+
+  int getNameTreeHeight();
+
+  int getNameTreeBlackHeight();
+
+  /**
+   * @return all metrics as text, one operation per line
+   */
+  String dump();
+}
@@ -0,0 +1,122 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Answers name and team searches from an LruCache in front of a Backend, for traffic that keeps
+ * asking for the same few players and teams. Every cached result is tagged with the Backend
+ * version it was computed for, so a result is never served after an upsert or remove changed the
+ * players; the first search after such a change also drops all older results at once.
+ *
+ * Cached team lists are shared by all callers and therefore unmodifiable.
+ */
+public class CachingBackend implements BackendInterface {
+
+  /**
+   * A cached result and the version of the players it was computed for.
+   */
+  private static final class Versioned<V> {
+    final long version;
+    final V value;
+
+    Versioned(long version, V value) {
+      this.version = version;
+      this.value = value;
+    }
+  }
+
+  // stands for a search that found nothing, since the cache does not store null
+  private static final Player NO_PLAYER = new Player(null, "", null, null, null, null);
+  private static final List<Player> NO_TEAM = Collections.emptyList();
+
+  private final Backend backend;
+  private final LruCache<String, Versioned<Player>> names;
+  private final LruCache<String, Versioned<List<Player>>> teams;
+  private volatile long version;
+
+  /**
+   * @param backend  the backend to search on a cache miss
+   * @param capacity the number of name results and, separately, of team results to keep
+   */
+  public CachingBackend(Backend backend, int capacity) {
+    this.backend = backend;
+    this.names = new LruCache<String, Versioned<Player>>(capacity);
+    this.teams = new LruCache<String, Versioned<List<Player>>>(capacity);
+    this.version = backend.getVersion();
+  }
+
+  /**
+   * @return the version of the players, after dropping all cached results when it has changed
+   */
+  private long currentVersion() {
+    long current = backend.getVersion();
+    if (current != this.version) {
+      synchronized (this) {
+        if (current != this.version) {
+          names.clear();
+          teams.clear();
+          this.version = current;
+        }
+      }
+    }
+    return current;
+  }
+
+  @Override
+  public int getTotalPlayers() {
+    return backend.getTotalPlayers();
+  }
+
+  @Override
+  public Player searchByName(String name) {
+    if (name == null) {
+      return null;
+    }
+    // the version is read before the search, so a result that raced with a write is tagged
+    // with the older version and never served for the newer one
+    long current = currentVersion();
+    String key = name.toLowerCase();
+    Versioned<Player> cached = names.get(key);
+    if (cached == null || cached.version != current) {
+      Player p = backend.searchByName(name);
+      cached = new Versioned<Player>(current, p == null ? NO_PLAYER : p);
+      names.put(key, cached);
+    }
+    return cached.value == NO_PLAYER ? null : cached.value;
+  }
+
+  /**
+   * Returns the players of a team in name order, see Backend.searchByTeam. The returned list is
+   * unmodifiable.
+   */
+  @Override
+  public List<Player> searchByTeam(String team) {
+    if (team == null) {
+      return null;
+    }
+    long current = currentVersion();
+    String key = team.toLowerCase();
+    Versioned<List<Player>> cached = teams.get(key);
+    if (cached == null || cached.version != current) {
+      List<Player> players = backend.searchByTeam(team);
+      // a known team always has players, so the empty list can stand for an unknown team
+      cached = new Versioned<List<Player>>(current,
+          players == null ? NO_TEAM : Collections.unmodifiableList(players));
+      teams.put(key, cached);
+    }
+    return cached.value == NO_TEAM ? null : cached.value;
+  }
+
+  /**
+   * @return the cache of name searches, for its hit, miss and eviction counters
+   */
+  public LruCache<String, ?> nameCache() {
+    return names;
+  }
+
+  /**
+   * @return the cache of team searches, for its hit, miss and eviction counters
+   */
+  public LruCache<String, ?> teamCache() {
+    return teams;
+  }
+}
@@ -119,28 +119,33 @@ public class FrontendDeveloper {
       if (name.equalsIgnoreCase("X")) {
         search = false;
         play();
+        return;
       }
       while (true) {
-        try {
-          if (backend.searchByName(name) != null) {
-            p = backend.searchByName(name);
-            search = false;
-            break;
-          }
-        } catch (Exception e) {
-          System.out.println("Invalid input or the player doesn't exist");
-          System.out.println("Please type the name the player");
-          System.out.println("OR press [X] to return to the previous page");
-          name = sc.nextLine();
-          if (name.equalsIgnoreCase("X")) {
-            search = false;
-            selectionByPlayer();
+        p = backend.searchByName(name);
+        if (p != null) {
+          search = false;
+          break;
+        }
+        System.out.println("Invalid input or the player doesn't exist");
+        List<Player> suggestions = backend.searchByPrefix(name, 5);
+        if (suggestions.isEmpty()) {
+          suggestions = backend.searchFuzzy(name, 2, 5);
+        }
+        if (!suggestions.isEmpty()) {
+          System.out.println("Did you mean:");
+          for (Player s : suggestions) {
+            System.out.println("  " + s.playerName);
           }
         }
-      }
-      if (name.equalsIgnoreCase("X")) {
-        search = false;
-        play();
+        System.out.println("Please type the name the player");
+        System.out.println("OR press [X] to return to the previous page");
+        name = sc.nextLine();
+        if (name.equalsIgnoreCase("X")) {
+          search = false;
+          play();
+          return;
+        }
       }
       System.out.println("Searched name: " + name);
       System.out.println("Would you like to see the player's [A]PG, [R]PG, or [P]PG?");
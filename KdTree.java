@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A k-d tree over the (PPG, RPG, APG) vectors of players, for finding the players with the most
+ * similar stats. The stats are normalized to z-scores first, so that a point of assists weighs as
+ * much as a typical spread of assists rather than a point of scoring, and similarity is the
+ * Euclidean distance between the normalized vectors.
+ *
+ * The tree is stored in flat arrays: the players and their coordinates are reordered so that the
+ * median of every range splits it into the left and right subtree, and the split dimension, the
+ * one with the widest spread in the range, is kept for the median. Ranges of up to LEAF_SIZE
+ * players are scanned. A search visits the side of a split that holds the target first and skips
+ * the other side when the split plane is farther away than the k-th best player so far.
+ *
+ * Players without all three stats are not part of the tree. A tree is never changed: with and
+ * without return a new version that shares the arrays of the built tree and keeps the players
+ * added since in a short list, and the removed ones in a set, which every search checks as well.
+ * The added players are normalized with the means and spreads of the built tree. Once there are
+ * more changes than about four times the square root of the size, with and without return null
+ * instead, so that the caller builds a new tree: a search then scans few changes, and the
+ * O(n log n) build is spread over many writes.
+ */
+public final class KdTree {
+
+  private static final int DIMENSIONS = 3;
+  private static final int LEAF_SIZE = 8;
+
+  private static final Player[] NO_PLAYERS = new Player[0];
+  private static final double[] NO_COORDINATES = new double[0];
+
+  private final Player[] players;
+  private final double[] coordinates; // DIMENSIONS per player, in the order of players
+  private final byte[] splits; // the split dimension of the median of each range
+  private final double[] means;
+  private final double[] scales;
+  private final int maxChanges;
+  // the players added and removed since the tree was built
+  private final Player[] added;
+  private final double[] addedCoordinates;
+  private final PersistentHashMap<Player, Player> removed;
+
+  private KdTree(Player[] players) {
+    this(players, new double[players.length * DIMENSIONS], new byte[players.length], new double[DIMENSIONS],
+        new double[DIMENSIONS], NO_PLAYERS, NO_COORDINATES, new PersistentHashMap<Player, Player>());
+  }
+
+  private KdTree(Player[] players, double[] coordinates, byte[] splits, double[] means, double[] scales,
+      Player[] added, double[] addedCoordinates, PersistentHashMap<Player, Player> removed) {
+    this.players = players;
+    this.coordinates = coordinates;
+    this.splits = splits;
+    this.means = means;
+    this.scales = scales;
+    this.maxChanges = Math.max(LEAF_SIZE, 4 * (int) Math.sqrt(players.length));
+    this.added = added;
+    this.addedCoordinates = addedCoordinates;
+    this.removed = removed;
+  }
+
+  /**
+   * Builds a tree over the players that have all three stats, in O(n log n) time.
+   */
+  public static KdTree buildFrom(Iterable<Player> players) {
+    List<Player> complete = new ArrayList<Player>();
+    for (Player p : players) {
+      if (hasAllStats(p))
+        complete.add(p);
+    }
+    KdTree tree = new KdTree(complete.toArray(new Player[0]));
+    int n = tree.players.length;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      double sum = 0;
+      for (Player p : tree.players) {
+        sum += raw(p, d);
+      }
+      double mean = n == 0 ? 0 : sum / n;
+      double squaredDeviations = 0;
+      for (Player p : tree.players) {
+        squaredDeviations += (raw(p, d) - mean) * (raw(p, d) - mean);
+      }
+      double stddev = n == 0 ? 0 : Math.sqrt(squaredDeviations / n);
+      tree.means[d] = mean;
+      // a stat that is the same for everyone does not tell players apart
+      tree.scales[d] = stddev == 0 ? 0 : 1 / stddev;
+    }
+    for (int i = 0; i < n; i++) {
+      tree.normalize(tree.players[i], tree.coordinates, i * DIMENSIONS);
+    }
+    tree.build(0, n);
+    return tree;
+  }
+
+  private static double raw(Player p, int dimension) {
+    switch (dimension) {
+    case 0:
+      return p.PPG;
+    case 1:
+      return p.RPG;
+    default:
+      return p.APG;
+    }
+  }
+
+  private void normalize(Player p, double[] target, int offset) {
+    for (int d = 0; d < DIMENSIONS; d++) {
+      target[offset + d] = (raw(p, d) - means[d]) * scales[d];
+    }
+  }
+
+  /**
+   * Puts the median of the range in the middle, ordered by the dimension with the widest spread,
+   * with the smaller players before it and the greater ones after it, and then builds both halves.
+   */
+  private void build(int from, int to) {
+    if (to - from <= LEAF_SIZE)
+      return;
+    int dimension = widestDimension(from, to);
+    int median = (from + to) >>> 1;
+    select(from, to - 1, median, dimension);
+    splits[median] = (byte) dimension;
+    build(from, median);
+    build(median + 1, to);
+  }
+
+  private int widestDimension(int from, int to) {
+    int widest = 0;
+    double widestSpread = -1;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i = from; i < to; i++) {
+        double value = coordinates[i * DIMENSIONS + d];
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+      }
+      if (max - min > widestSpread) {
+        widest = d;
+        widestSpread = max - min;
+      }
+    }
+    return widest;
+  }
+
+  /**
+   * Quickselect: reorders the players between lo and hi (both inclusive) so that the player at
+   * index k has the k-th smallest value of the dimension, with no greater values before it and no
+   * smaller values after it.
+   */
+  private void select(int lo, int hi, int k, int dimension) {
+    while (lo < hi) {
+      double pivot = coordinates[((lo + hi) >>> 1) * DIMENSIONS + dimension];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (coordinates[i * DIMENSIONS + dimension] < pivot)
+          i++;
+        while (coordinates[j * DIMENSIONS + dimension] > pivot)
+          j--;
+        if (i <= j)
+          swap(i++, j--);
+      }
+      if (k <= j)
+        hi = j;
+      else if (k >= i)
+        lo = i;
+      else
+        return;
+    }
+  }
+
+  private void swap(int a, int b) {
+    Player player = players[a];
+    players[a] = players[b];
+    players[b] = player;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      double coordinate = coordinates[a * DIMENSIONS + d];
+      coordinates[a * DIMENSIONS + d] = coordinates[b * DIMENSIONS + d];
+      coordinates[b * DIMENSIONS + d] = coordinate;
+    }
+  }
+
+  /**
+   * @return the number of players in the tree
+   */
+  public int size() {
+    return players.length - removed.size() + added.length;
+  }
+
+  private static boolean hasAllStats(Player p) {
+    return !Double.isNaN(p.PPG) && !Double.isNaN(p.RPG) && !Double.isNaN(p.APG);
+  }
+
+  /**
+   * Returns a tree that also holds the given player. This tree is not changed.
+   *
+   * @return the new version, this tree when the player lacks a stat, or null when the tree has
+   *         had so many changes that it should be built again
+   */
+  public KdTree with(Player p) {
+    if (!hasAllStats(p))
+      return this;
+    if (added.length + removed.size() >= maxChanges)
+      return null;
+    Player[] newAdded = Arrays.copyOf(added, added.length + 1);
+    newAdded[added.length] = p;
+    double[] newCoordinates = Arrays.copyOf(addedCoordinates, addedCoordinates.length + DIMENSIONS);
+    normalize(p, newCoordinates, addedCoordinates.length);
+    return new KdTree(players, coordinates, splits, means, scales, newAdded, newCoordinates, removed);
+  }
+
+  /**
+   * Returns a tree without the given player, which must be the same object that was built into the
+   * tree or passed to with. This tree is not changed.
+   *
+   * @return the new version, this tree when the player lacks a stat, or null when the tree has
+   *         had so many changes that it should be built again
+   */
+  public KdTree without(Player p) {
+    if (!hasAllStats(p))
+      return this;
+    if (added.length + removed.size() >= maxChanges)
+      return null;
+    for (int i = 0; i < added.length; i++) {
+      if (added[i] == p) {
+        Player[] newAdded = new Player[added.length - 1];
+        System.arraycopy(added, 0, newAdded, 0, i);
+        System.arraycopy(added, i + 1, newAdded, i, newAdded.length - i);
+        double[] newCoordinates = new double[newAdded.length * DIMENSIONS];
+        System.arraycopy(addedCoordinates, 0, newCoordinates, 0, i * DIMENSIONS);
+        System.arraycopy(addedCoordinates, (i + 1) * DIMENSIONS, newCoordinates, i * DIMENSIONS,
+            newCoordinates.length - i * DIMENSIONS);
+        return new KdTree(players, coordinates, splits, means, scales, newAdded, newCoordinates, removed);
+      }
+    }
+    return new KdTree(players, coordinates, splits, means, scales, added, addedCoordinates, removed.put(p, p));
+  }
+
+  /**
+   * @return the distance between the normalized stat vectors of two players, NaN when either
+   *         lacks a stat
+   */
+  public double distance(Player a, Player b) {
+    double[] vectors = new double[2 * DIMENSIONS];
+    normalize(a, vectors, 0);
+    normalize(b, vectors, DIMENSIONS);
+    double sum = 0;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      double difference = vectors[d] - vectors[DIMENSIONS + d];
+      sum += difference * difference;
+    }
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * A player found by a search and its squared distance to the target.
+   */
+  private static final class Neighbor {
+    final Player player;
+    final double distance;
+
+    Neighbor(Player player, double distance) {
+      this.player = player;
+      this.distance = distance;
+    }
+  }
+
+  // the worst neighbor first, so that it is the one a closer player replaces
+  private static final Comparator<Neighbor> WORST_FIRST = new Comparator<Neighbor>() {
+    @Override
+    public int compare(Neighbor a, Neighbor b) {
+      int compare = Double.compare(b.distance, a.distance);
+      return compare != 0 ? compare : Backend.NAME_ORDER.compare(b.player, a.player);
+    }
+  };
+
+  /**
+   * Returns the k players whose stats are closest to those of the target, closest first and
+   * equally close players in name order.
+   *
+   * @param target     the player to compare with, which does not need to be in the tree
+   * @param k          the number of players to return
+   * @param excludedId players with this ID are skipped, so that a player is not similar to
+   *                   itself; may be null
+   * @return the players, an empty list when the target lacks a stat
+   */
+  public List<Player> nearest(Player target, int k, String excludedId) {
+    return nearest(target, k, excludedId, false);
+  }
+
+  /**
+   * Answers nearest by comparing the target with every player, for checking and benchmarking the
+   * tree search.
+   */
+  List<Player> nearestByScan(Player target, int k, String excludedId) {
+    return nearest(target, k, excludedId, true);
+  }
+
+  private List<Player> nearest(Player target, int k, String excludedId, boolean scan) {
+    List<Player> results = new ArrayList<Player>();
+    // no more than all players can be returned, which also bounds the queue
+    k = Math.min(k, size());
+    if (k <= 0 || !hasAllStats(target))
+      return results;
+    double[] point = new double[DIMENSIONS];
+    normalize(target, point, 0);
+    PriorityQueue<Neighbor> best = new PriorityQueue<Neighbor>(k + 1, WORST_FIRST);
+    if (scan) {
+      for (int i = 0; i < players.length; i++) {
+        offer(players[i], coordinates, i * DIMENSIONS, point, k, excludedId, best);
+      }
+    } else {
+      search(0, players.length, point, k, excludedId, best);
+    }
+    for (int i = 0; i < added.length; i++) {
+      offer(added[i], addedCoordinates, i * DIMENSIONS, point, k, excludedId, best);
+    }
+    while (!best.isEmpty()) {
+      results.add(best.poll().player);
+    }
+    Collections.reverse(results);
+    return results;
+  }
+
+  private void search(int from, int to, double[] point, int k, String excludedId, PriorityQueue<Neighbor> best) {
+    if (to - from <= LEAF_SIZE) {
+      for (int i = from; i < to; i++) {
+        offer(players[i], coordinates, i * DIMENSIONS, point, k, excludedId, best);
+      }
+      return;
+    }
+    int median = (from + to) >>> 1;
+    int dimension = splits[median];
+    double difference = point[dimension] - coordinates[median * DIMENSIONS + dimension];
+    // the side of the split that holds the point is searched first, it most likely has the nearest
+    if (difference < 0) {
+      search(from, median, point, k, excludedId, best);
+    } else {
+      search(median + 1, to, point, k, excludedId, best);
+    }
+    offer(players[median], coordinates, median * DIMENSIONS, point, k, excludedId, best);
+    if (best.size() < k || difference * difference <= best.peek().distance) {
+      if (difference < 0) {
+        search(median + 1, to, point, k, excludedId, best);
+      } else {
+        search(from, median, point, k, excludedId, best);
+      }
+    }
+  }
+
+  private void offer(Player p, double[] coordinates, int offset, double[] point, int k, String excludedId,
+      PriorityQueue<Neighbor> best) {
+    double distance = 0;
+    for (int d = 0; d < DIMENSIONS; d++) {
+      double difference = point[d] - coordinates[offset + d];
+      distance += difference * difference;
+    }
+    if (best.size() == k && distance > best.peek().distance)
+      return;
+    if (excludedId != null && excludedId.equals(p.getID()))
+      return;
+    if (!removed.isEmpty() && removed.containsKey(p))
+      return;
+    best.add(new Neighbor(p, distance));
+    if (best.size() > k)
+      best.poll();
+  }
+}
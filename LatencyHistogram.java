@@ -0,0 +1,113 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with log-linear buckets in the style of HdrHistogram:
+ * every power of two is split into 32 equally wide buckets, so a recorded value is known to within
+ * about 3% while the whole range from 1 ns to about 18 minutes takes only 1152 counters. Recording
+ * is a single atomic increment without locks or allocation, so it can stay on hot paths.
+ *
+ * Values are never removed, the histogram describes everything recorded since it was created.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_BITS = 40; // 2^40 ns is about 18 minutes
+  private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray((MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+  /**
+   * Records one duration. Negative durations count as 0 and durations above the range count as
+   * the greatest value of the range.
+   */
+  public void record(long nanos) {
+    counts.incrementAndGet(bucket(Math.max(0, Math.min(MAX_VALUE, nanos))));
+  }
+
+  /**
+   * Values below 64 have a bucket each. Above that, the bucket is given by the position of the
+   * highest set bit and the 5 bits below it.
+   */
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  /**
+   * @return the greatest value that falls into the given bucket
+   */
+  private static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    int shift = bucket / SUB_BUCKETS - 1;
+    long sub = bucket - shift * SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the value below which the given percentage of the recorded values lie, rounded up to
+   * the greatest value of its bucket.
+   *
+   * @param percentile between 0 and 100
+   * @return the value, or 0 when nothing was recorded
+   */
+  public long percentile(double percentile) {
+    long total = count();
+    if (total == 0)
+      return 0;
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank)
+        return highestValue(i);
+    }
+    return MAX_VALUE;
+  }
+
+  /**
+   * @return the mean of the recorded values, each taken as the greatest value of its bucket
+   */
+  public double mean() {
+    long total = 0;
+    double sum = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      long count = counts.get(i);
+      total += count;
+      sum += (double) count * highestValue(i);
+    }
+    return total == 0 ? 0 : sum / total;
+  }
+
+  /**
+   * @return the greatest recorded value, rounded up to the greatest value of its bucket
+   */
+  public long max() {
+    for (int i = counts.length() - 1; i >= 0; i--) {
+      if (counts.get(i) > 0)
+        return highestValue(i);
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return "count " + count() + ", mean " + Math.round(mean()) + " ns, p50 " + percentile(50) + " ns, p90 "
+        + percentile(90) + " ns, p99 " + percentile(99) + " ns, p99.9 " + percentile(99.9) + " ns, max " + max()
+        + " ns";
+  }
+}
@@ -0,0 +1,95 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map that evicts the least recently used entry once it holds more than capacity
+ * entries. All methods are synchronized, so one cache can be shared by many threads. The cache
+ * counts hits, misses and evictions from the time it was created.
+ */
+public class LruCache<K, V> {
+
+  private final int capacity;
+  private final LinkedHashMap<K, V> entries;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param capacity the maximum number of entries, at least 1
+   */
+  public LruCache(int capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("The capacity of a cache must be at least 1.");
+    this.capacity = capacity;
+    // access order moves an entry to the end on every get, so the eldest entry is the least
+    // recently used one
+    this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        if (size() > LruCache.this.capacity) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return the cached value for the key, or null when it is not cached
+   */
+  public synchronized V get(K key) {
+    V value = entries.get(key);
+    if (value == null)
+      misses++;
+    else
+      hits++;
+    return value;
+  }
+
+  /**
+   * Caches a value, evicting the least recently used entry when the cache is full.
+   *
+   * @throws NullPointerException when the value is null
+   */
+  public synchronized void put(K key, V value) {
+    if (value == null)
+      throw new NullPointerException("This LruCache cannot store null references.");
+    entries.put(key, value);
+  }
+
+  /**
+   * Removes all entries. Removed entries are not counted as evictions.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "size " + entries.size() + "/" + capacity + ", hits " + hits + ", misses " + misses + ", evictions "
+        + evictions;
+  }
+}
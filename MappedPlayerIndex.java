@@ -0,0 +1,758 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+
+/**
+ * A read-only sorted index of players that lives in a memory-mapped file instead of the heap. The
+ * players are stored as fixed-width records in name order, so the position of a record is its
+ * rank, and every lookup is a binary search over the mapped pages. The team and stat orders are
+ * stored as arrays of record numbers, and so is the ID order, which keeps the seasons of a player
+ * next to each other. Only the players that a query returns are created as objects, which keeps
+ * the heap, and with it the garbage collection pauses, independent of the size of the data set.
+ *
+ * An index object is a view of one order of the file: the name order, the players of one team in
+ * name order, one stat leaderboard, or the seasons of one player. All views of a file share its
+ * mappings.
+ *
+ * File layout, all numbers big-endian:
+ *
+ * <pre>
+ * header   int magic ("NBAI"), int format version, int players n, int teams t,
+ *          int team rows, int count per stat (PPG, RPG, APG)
+ * records  n x 48 bytes in name order: long string offset, int name length, int ID length
+ *          (-1 for null), int team code (-1 for none), int season, double PPG, RPG, APG
+ * teams    t x 16 bytes: long string offset, int length, int unused
+ * rows     int record numbers: the players with a team ordered by lower case team and name,
+ *          then the leaderboard of each stat, then all players ordered by ID and season
+ * strings  UTF-8 bytes, the name of a player directly followed by its ID
+ * checksum long CRC32 of all bytes above
+ * </pre>
+ *
+ * Opening a file only reads its header and team table, the checksum is compared by verify, which
+ * reads the whole file.
+ *
+ * The file is mapped in windows of up to 1 GB, so it can be larger than 2 GB. The strings of one
+ * record never cross the border of a window.
+ */
+public class MappedPlayerIndex implements SortedCollectionInterface<Player> {
+
+  private static final int MAGIC = 0x4E424149; // "NBAI"
+  private static final int FORMAT_VERSION = 3;
+  private static final int HEADER_SIZE = 8 * 4;
+  private static final int RECORD_SIZE = 48;
+  private static final int TEAM_SIZE = 16;
+  private static final int WINDOW_SIZE = 1 << 30;
+
+  /**
+   * Orders the players with a team by their lower case team name and then by name.
+   */
+  private static final Comparator<Player> TEAM_ORDER = new Comparator<Player>() {
+    @Override
+    public int compare(Player a, Player b) {
+      int compare = a.teamKey.compareTo(b.teamKey);
+      return compare != 0 ? compare : Backend.NAME_ORDER.compare(a, b);
+    }
+  };
+
+  private final Storage storage;
+  private final Region rows; // record numbers in the order of this view, null for the name order
+  private final long first; // position of the first element of this view in rows
+  private final int size;
+  private final Comparator<Player> comparator;
+
+  private MappedPlayerIndex(Storage storage, Region rows, long first, int size, Comparator<Player> comparator) {
+    this.storage = storage;
+    this.rows = rows;
+    this.first = first;
+    this.size = size;
+    this.comparator = comparator;
+  }
+
+  /**
+   * Writes an index file for the given players, which must not have two rows for the same ID and
+   * season. The file is written under a temporary name first and then moved into place, and the
+   * temporary file is deleted when the write fails.
+   *
+   * @throws NullPointerException     when the collection contains null
+   * @throws IllegalArgumentException when two players have the same ID, season and name
+   */
+  public static void write(Collection<Player> players, Path file) throws IOException {
+    PlayerStore store = new PlayerStore();
+    for (Player p : players) {
+      if (p == null)
+        throw new NullPointerException("This MappedPlayerIndex cannot store null references.");
+      store.add(p);
+    }
+    write(store, file);
+  }
+
+  /**
+   * Writes an index file for the rows of a PlayerStore, like write does for players. The orders are
+   * sorted as row numbers, so no Player object is created.
+   *
+   * @throws IllegalArgumentException when two rows have the same ID, season and name
+   */
+  public static void write(final PlayerStore store, Path file) throws IOException {
+    // the lower case keys that Player keeps, computed once here rather than in every comparison
+    final String[] nameKeys = new String[store.size()];
+    for (int row = 0; row < nameKeys.length; row++) {
+      nameKeys[row] = store.getPlayerName(row).toLowerCase();
+    }
+    final String[] teamKeys = new String[store.teamCount()];
+    for (int code = 0; code < teamKeys.length; code++) {
+      String team = store.teamName(code);
+      teamKeys[code] = team == null ? null : team.toLowerCase();
+    }
+    // the orders of Backend.NAME_ORDER, TEAM_ORDER, Stat.order and Backend.ID_ORDER on rows
+    final Comparator<Integer> nameOrder = new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int compare = nameKeys[a].compareTo(nameKeys[b]);
+        if (compare == 0)
+          compare = store.getPlayerName(a).compareTo(store.getPlayerName(b));
+        if (compare == 0)
+          compare = Backend.compareIds(store.getID(a), store.getID(b));
+        return compare != 0 ? compare : Integer.compare(store.getSeason(b), store.getSeason(a));
+      }
+    };
+    Comparator<Integer> teamOrder = new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int compare = teamKeys[store.getTeamCode(a)].compareTo(teamKeys[store.getTeamCode(b)]);
+        return compare != 0 ? compare : nameOrder.compare(a, b);
+      }
+    };
+    Comparator<Integer> idOrder = new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int compare = Backend.compareIds(store.getID(a), store.getID(b));
+        return compare != 0 ? compare : Integer.compare(store.getSeason(a), store.getSeason(b));
+      }
+    };
+
+    Integer[] byName = store.rowNumbers();
+    Arrays.parallelSort(byName, nameOrder);
+    int[] recordOf = new int[byName.length];
+    for (int record = 0; record < byName.length; record++) {
+      if (record > 0 && nameOrder.compare(byName[record - 1], byName[record]) == 0)
+        throw new IllegalArgumentException("The player " + store.getID(byName[record]) + " appears twice in season "
+            + store.getSeason(byName[record]));
+      recordOf[byName[record]] = record;
+    }
+
+    // the file numbers the teams in the order in which they first appear in the name order
+    List<String> teams = new ArrayList<String>();
+    int[] teamCodes = new int[store.teamCount()];
+    Arrays.fill(teamCodes, -1);
+    List<Integer> withTeam = new ArrayList<Integer>();
+    for (Integer row : byName) {
+      if (store.getTeam(row) != null) {
+        if (teamCodes[store.getTeamCode(row)] < 0) {
+          teamCodes[store.getTeamCode(row)] = teams.size();
+          teams.add(store.getTeam(row));
+        }
+        withTeam.add(row);
+      }
+    }
+    Collections.sort(withTeam, teamOrder);
+    List<List<Integer>> leaderboards = new ArrayList<List<Integer>>();
+    for (Stat stat : Stat.values()) {
+      final double[] values = store.column(stat);
+      List<Integer> withStat = new ArrayList<Integer>();
+      for (Integer row : byName) {
+        if (!Double.isNaN(values[row]))
+          withStat.add(row);
+      }
+      Collections.sort(withStat, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          int compare = Double.compare(values[b], values[a]);
+          if (compare == 0)
+            compare = Backend.compareIds(store.getID(a), store.getID(b));
+          return compare != 0 ? compare : Integer.compare(store.getSeason(b), store.getSeason(a));
+        }
+      });
+      leaderboards.add(withStat);
+    }
+    Integer[] byId = byName.clone();
+    Arrays.parallelSort(byId, idOrder);
+
+    // the string offsets are assigned first, because the records that refer to them come first
+    StringHeap heap = new StringHeap();
+    long[] playerStrings = new long[byName.length];
+    for (int record = 0; record < byName.length; record++) {
+      int row = byName[record];
+      playerStrings[record] = heap.add(utf8Length(store.getPlayerName(row)) + utf8Length(store.getID(row)));
+    }
+    long[] teamStrings = new long[teams.size()];
+    for (int code = 0; code < teams.size(); code++) {
+      teamStrings[code] = heap.add(utf8Length(teams.get(code)));
+    }
+
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    // a write that fails leaves no temporary file behind for the next write to find
+    boolean moved = false;
+    try {
+      CRC32 crc = new CRC32();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new CheckedOutputStream(Files.newOutputStream(temp), crc), 1 << 16));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(byName.length);
+        out.writeInt(teams.size());
+        out.writeInt(withTeam.size());
+        for (List<Integer> leaderboard : leaderboards) {
+          out.writeInt(leaderboard.size());
+        }
+        for (int record = 0; record < byName.length; record++) {
+          int row = byName[record];
+          out.writeLong(playerStrings[record]);
+          out.writeInt(utf8Length(store.getPlayerName(row)));
+          out.writeInt(store.getID(row) == null ? -1 : utf8Length(store.getID(row)));
+          out.writeInt(store.getTeam(row) == null ? -1 : teamCodes[store.getTeamCode(row)]);
+          out.writeInt(store.getSeason(row));
+          out.writeDouble(store.get(Stat.PPG, row));
+          out.writeDouble(store.get(Stat.RPG, row));
+          out.writeDouble(store.get(Stat.APG, row));
+        }
+        for (int code = 0; code < teams.size(); code++) {
+          out.writeLong(teamStrings[code]);
+          out.writeInt(utf8Length(teams.get(code)));
+          out.writeInt(0);
+        }
+        for (Integer row : withTeam) {
+          out.writeInt(recordOf[row]);
+        }
+        for (List<Integer> leaderboard : leaderboards) {
+          for (Integer row : leaderboard) {
+            out.writeInt(recordOf[row]);
+          }
+        }
+        for (Integer row : byId) {
+          out.writeInt(recordOf[row]);
+        }
+        long position = 0;
+        for (int record = 0; record < byName.length; record++) {
+          int row = byName[record];
+          position = pad(out, position, playerStrings[record]);
+          position += writeUtf8(out, store.getPlayerName(row)) + writeUtf8(out, store.getID(row));
+        }
+        for (int code = 0; code < teams.size(); code++) {
+          position = pad(out, position, teamStrings[code]);
+          position += writeUtf8(out, teams.get(code));
+        }
+        // the checksum covers everything written so far, so take it before writing it
+        out.flush();
+        out.writeLong(crc.getValue());
+      } finally {
+        out.close();
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      moved = true;
+    } finally {
+      if (!moved)
+        Files.deleteIfExists(temp);
+    }
+  }
+
+  private static int utf8Length(String value) {
+    return value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private static int writeUtf8(DataOutputStream out, String value) throws IOException {
+    if (value == null)
+      return 0;
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.write(bytes);
+    return bytes.length;
+  }
+
+  private static long pad(DataOutputStream out, long position, long target) throws IOException {
+    for (; position < target; position++) {
+      out.write(0);
+    }
+    return position;
+  }
+
+  /**
+   * Assigns offsets in the string section so that no string crosses the border of a window.
+   */
+  private static class StringHeap {
+    private long end = 0;
+
+    long add(int length) {
+      if (length > WINDOW_SIZE)
+        throw new IllegalArgumentException("A name of " + length + " bytes is too long to be indexed");
+      if (end % WINDOW_SIZE + length > WINDOW_SIZE)
+        end += WINDOW_SIZE - end % WINDOW_SIZE;
+      long offset = end;
+      end += length;
+      return offset;
+    }
+  }
+
+  /**
+   * Maps an index file written by write and returns the view in name order.
+   *
+   * @throws FileNotFoundException when the file does not exist
+   * @throws DataFormatException   when the file is not an index file or has an unknown format
+   *                               version
+   */
+  public static MappedPlayerIndex open(Path file) throws FileNotFoundException, IOException, DataFormatException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException(file.toString());
+    }
+    try {
+      // the mappings stay valid after the channel is closed
+      Storage storage = new Storage(channel);
+      return new MappedPlayerIndex(storage, null, 0, storage.playerCount, Backend.NAME_ORDER);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Reads a whole index file and compares it with the checksum stored at its end.
+   *
+   * @throws FileNotFoundException when the file does not exist
+   * @throws DataFormatException   when the file is not an index file, or is damaged
+   */
+  public static void verify(Path file) throws FileNotFoundException, IOException, DataFormatException {
+    open(file);
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      long dataSize = channel.size() - 8;
+      CRC32 crc = new CRC32();
+      for (long start = 0; start < dataSize; start += WINDOW_SIZE) {
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, dataSize - start)));
+      }
+      ByteBuffer stored = channel.map(FileChannel.MapMode.READ_ONLY, dataSize, 8);
+      if (stored.getLong() != crc.getValue())
+        throw new DataFormatException("The player index checksum does not match, the file is damaged");
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * The mapped sections of one index file, shared by all views of it.
+   */
+  private static class Storage {
+    final int playerCount;
+    final Region records;
+    final Region rows;
+    final Region strings;
+    final String[] teams; // team names by team code, there are few so they are kept on the heap
+    final String[] teamKeys;
+    final int teamRowCount;
+    final long[] statRowsStart = new long[Stat.values().length];
+    final int[] statRowCount = new int[Stat.values().length];
+    final long idRowsStart;
+
+    Storage(FileChannel channel) throws IOException, DataFormatException {
+      if (channel.size() < HEADER_SIZE)
+        throw new DataFormatException("The file is too short to be a player index");
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC)
+        throw new DataFormatException("The file is not a player index");
+      int formatVersion = header.getInt();
+      if (formatVersion != FORMAT_VERSION)
+        throw new DataFormatException("Unsupported index format version " + formatVersion);
+      playerCount = header.getInt();
+      int teamCount = header.getInt();
+      teamRowCount = header.getInt();
+      long rowCount = teamRowCount;
+      for (int stat = 0; stat < statRowCount.length; stat++) {
+        statRowsStart[stat] = rowCount;
+        statRowCount[stat] = header.getInt();
+        rowCount += statRowCount[stat];
+      }
+      idRowsStart = rowCount;
+      rowCount += playerCount;
+
+      long recordsStart = HEADER_SIZE;
+      long teamsStart = recordsStart + (long) playerCount * RECORD_SIZE;
+      long rowsStart = teamsStart + (long) teamCount * TEAM_SIZE;
+      long stringsStart = rowsStart + rowCount * 4;
+      long checksumStart = channel.size() - 8;
+      if (playerCount < 0 || teamCount < 0 || checksumStart < stringsStart)
+        throw new DataFormatException("The player index is truncated");
+      records = new Region(channel, recordsStart, teamsStart - recordsStart, RECORD_SIZE);
+      rows = new Region(channel, rowsStart, stringsStart - rowsStart, 4);
+      strings = new Region(channel, stringsStart, checksumStart - stringsStart, 1);
+
+      Region teamTable = new Region(channel, teamsStart, rowsStart - teamsStart, TEAM_SIZE);
+      teams = new String[teamCount];
+      teamKeys = new String[teamCount];
+      for (int code = 0; code < teamCount; code++) {
+        long team = (long) code * TEAM_SIZE;
+        teams[code] = strings.getString(teamTable.getLong(team), teamTable.getInt(team + 8));
+        teamKeys[code] = teams[code].toLowerCase();
+      }
+    }
+
+    /**
+     * Creates the player stored in the given record.
+     */
+    Player player(int record) {
+      long position = (long) record * RECORD_SIZE;
+      long string = records.getLong(position);
+      int nameLength = records.getInt(position + 8);
+      int idLength = records.getInt(position + 12);
+      int teamCode = records.getInt(position + 16);
+      String name = strings.getString(string, nameLength);
+      String id = idLength < 0 ? null : strings.getString(string + nameLength, idLength);
+      return new Player(id, name, teamCode < 0 ? null : teams[teamCode], records.getInt(position + 20),
+          Player.box(records.getDouble(position + 24)), Player.box(records.getDouble(position + 32)),
+          Player.box(records.getDouble(position + 40)));
+    }
+
+    /**
+     * @return the lower case team name of the given record without creating the player
+     */
+    String teamKey(int record) {
+      return teamKeys[records.getInt((long) record * RECORD_SIZE + 16)];
+    }
+
+    /**
+     * @return the ID of the given record without creating the player
+     */
+    String id(int record) {
+      long position = (long) record * RECORD_SIZE;
+      int idLength = records.getInt(position + 12);
+      if (idLength < 0)
+        return null;
+      return strings.getString(records.getLong(position) + records.getInt(position + 8), idLength);
+    }
+  }
+
+  /**
+   * A section of the file, mapped in windows that each hold a whole number of elements.
+   */
+  private static class Region {
+    private final MappedByteBuffer[] windows;
+    private final int windowSize;
+
+    Region(FileChannel channel, long start, long length, int elementSize) throws IOException {
+      this.windowSize = WINDOW_SIZE / elementSize * elementSize;
+      this.windows = new MappedByteBuffer[(int) ((length + windowSize - 1) / windowSize)];
+      for (int i = 0; i < windows.length; i++) {
+        long offset = (long) i * windowSize;
+        windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + offset, Math.min(windowSize, length - offset));
+      }
+    }
+
+    int getInt(long position) {
+      return windows[(int) (position / windowSize)].getInt((int) (position % windowSize));
+    }
+
+    long getLong(long position) {
+      return windows[(int) (position / windowSize)].getLong((int) (position % windowSize));
+    }
+
+    double getDouble(long position) {
+      return windows[(int) (position / windowSize)].getDouble((int) (position % windowSize));
+    }
+
+    String getString(long position, int length) {
+      if (length == 0)
+        return "";
+      ByteBuffer window = windows[(int) (position / windowSize)].duplicate();
+      window.position((int) (position % windowSize));
+      byte[] bytes = new byte[length];
+      window.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * The index is written once by write and cannot be changed afterwards.
+   *
+   * @throws UnsupportedOperationException always
+   */
+  @Override
+  public boolean insert(Player data) throws UnsupportedOperationException {
+    throw new UnsupportedOperationException("This MappedPlayerIndex is read-only, write a new file to change it.");
+  }
+
+  /**
+   * Checks whether this view contains a player equal to data in the order of this view.
+   */
+  @Override
+  public boolean contains(final Player data) {
+    if (data == null)
+      throw new NullPointerException("This MappedPlayerIndex cannot store null references.");
+    return get(new Comparable<Player>() {
+      @Override
+      public int compareTo(Player other) {
+        return comparator.compare(data, other);
+      }
+    }) != null;
+  }
+
+  /**
+   * @return the number of players in this view
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the ordering of this view
+   */
+  public Comparator<Player> comparator() {
+    return comparator;
+  }
+
+  /**
+   * @return the record number of the player at the given position of this view, which is the
+   *         rank of the player in the name order
+   */
+  int record(int index) {
+    return rows == null ? (int) (first + index) : rows.getInt((first + index) * 4);
+  }
+
+  /**
+   * @return the player that has exactly index smaller players in this view
+   * @throws IndexOutOfBoundsException when index is negative or not smaller than size()
+   */
+  public Player select(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for size " + size);
+    return storage.player(record(index));
+  }
+
+  /**
+   * @return the number of players in this view that the key compares greater than, found by a
+   *         binary search over the mapped records
+   */
+  public int rank(Comparable<? super Player> key) {
+    if (key == null)
+      throw new NullPointerException("This MappedPlayerIndex cannot store null references.");
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (key.compareTo(storage.player(record(mid))) > 0)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * Finds the ceiling of every key of a batch in one left to right pass, see
+   * PersistentRedBlackTree.ceilings. The keys must be sorted in the order of this view. The search
+   * for a key gallops forward from the ceiling of the key before it, doubling its step until it
+   * passes the key, and then bisects the last step, so a batch reads only the pages near its
+   * answers.
+   *
+   * @return the ceiling of each key in the same order, null for a key greater than all players
+   */
+  public List<Player> ceilings(List<? extends Comparable<? super Player>> sortedKeys) {
+    List<Player> ceilings = new ArrayList<Player>(sortedKeys.size());
+    int lo = 0;
+    for (Comparable<? super Player> key : sortedKeys) {
+      if (key == null)
+        throw new NullPointerException("This MappedPlayerIndex cannot store null references.");
+      // every index before lo is smaller than the key, find an hi that is not
+      int step = 1;
+      int hi = lo;
+      while (hi < size && key.compareTo(storage.player(record(hi))) > 0) {
+        lo = hi + 1;
+        hi = (int) Math.min(size, (long) hi + step);
+        step *= 2;
+      }
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (key.compareTo(storage.player(record(mid))) > 0)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      ceilings.add(lo < size ? storage.player(record(lo)) : null);
+    }
+    return ceilings;
+  }
+
+  /**
+   * Looks up a player with a binary search, see RedBlackTree.get.
+   *
+   * @param key the probe that is compared against the stored players
+   * @return a stored player that the key compares equal to, or null if there is none
+   */
+  public Player get(Comparable<? super Player> key) {
+    int index = rank(key);
+    if (index == size)
+      return null;
+    Player p = storage.player(record(index));
+    return key.compareTo(p) == 0 ? p : null;
+  }
+
+  /**
+   * Returns the players of a team in name order. Only valid on the name-ordered view returned by
+   * open.
+   *
+   * @param teamKey the lower case team name
+   * @return the view of the team, or null when no player is on that team
+   */
+  public MappedPlayerIndex team(final String teamKey) {
+    // the team rows are ordered by team first, so the team is the range between the first row
+    // that is not before the team and the first row that is after it
+    int lo = teamBound(teamKey, false);
+    int hi = teamBound(teamKey, true);
+    if (lo == hi)
+      return null;
+    return new MappedPlayerIndex(storage, storage.rows, lo, hi - lo, TEAM_ORDER);
+  }
+
+  private int teamBound(String teamKey, boolean after) {
+    int lo = 0;
+    int hi = storage.teamRowCount;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int compare = teamKey.compareTo(storage.teamKey(storage.rows.getInt((long) mid * 4)));
+      if (compare > 0 || (after && compare == 0))
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * @return the distinct lower case names of all teams in the file
+   */
+  public Set<String> teamKeys() {
+    return new HashSet<String>(Arrays.asList(storage.teamKeys));
+  }
+
+  /**
+   * Returns the seasons of one player, from the earliest to the latest. Only valid on the
+   * name-ordered view returned by open.
+   *
+   * @return the view of the player's seasons, or null when no player has that ID
+   */
+  public MappedPlayerIndex history(String id) {
+    int lo = idBound(id, false);
+    int hi = idBound(id, true);
+    if (lo == hi)
+      return null;
+    return new MappedPlayerIndex(storage, storage.rows, storage.idRowsStart + lo, hi - lo, Backend.ID_ORDER);
+  }
+
+  private int idBound(String id, boolean after) {
+    int lo = 0;
+    int hi = storage.playerCount;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      String stored = storage.id(storage.rows.getInt((storage.idRowsStart + mid) * 4));
+      int compare = stored == null ? 1 : id.compareTo(stored);
+      if (compare > 0 || (after && compare == 0))
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the leaderboard of a stat, highest first, in the order of Stat.order. Only valid on
+   * the name-ordered view returned by open.
+   */
+  public MappedPlayerIndex stat(Stat stat) {
+    return new MappedPlayerIndex(storage, storage.rows, storage.statRowsStart[stat.ordinal()],
+        storage.statRowCount[stat.ordinal()], stat.order);
+  }
+
+  /**
+   * Returns an iterator over the players of this view in order.
+   */
+  @Override
+  public Iterator<Player> iterator() {
+    return new RowIterator(0, size);
+  }
+
+  /**
+   * Returns an iterator over the players in order that are at or after the from key and before
+   * the to key, see RedBlackTree.rangeIterator.
+   *
+   * @param from the inclusive lower bound, or null to start at the smallest player
+   * @param to   the exclusive upper bound, or null to continue to the greatest player
+   */
+  public Iterator<Player> rangeIterator(Comparable<? super Player> from, Comparable<? super Player> to) {
+    int start = from == null ? 0 : rank(from);
+    int end = to == null ? size : rank(to);
+    return new RowIterator(start, Math.max(start, end));
+  }
+
+  /**
+   * Returns an iterator over the players in order that starts at the player of the given rank.
+   *
+   * @throws IndexOutOfBoundsException when index is negative or greater than size()
+   */
+  public Iterator<Player> iteratorFrom(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index > size)
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for size " + size);
+    return new RowIterator(index, size);
+  }
+
+  /**
+   * Creates the players between two positions of this view as they are reached.
+   */
+  private class RowIterator implements Iterator<Player> {
+    private int next;
+    private final int end;
+
+    RowIterator(int next, int end) {
+      this.next = next;
+      this.end = end;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < end;
+    }
+
+    @Override
+    public Player next() {
+      if (next >= end)
+        throw new NoSuchElementException("There are no more elements in the index");
+      return storage.player(record(next++));
+    }
+  }
+}
@@ -0,0 +1,246 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+
+/**
+ * Reads a player stats file in parallel. The file is memory mapped and cut into chunks at line
+ * boundaries, and each chunk is parsed by a PlayerStatsReader on a fork-join pool. The first line
+ * of the file is taken to be the header and is put in front of every chunk, so that every chunk is
+ * a complete data set for PlayerStatsReader.
+ *
+ * A data set whose header has a Season column holds one row per player and season, with the year
+ * the season started in. Such chunks are parsed here by column name, since PlayerStatsReader only
+ * knows the six columns without a season.
+ * 
+ * Parsed players are handed to the caller chunk by chunk and in file order. Only a bounded number
+ * of chunks is parsed ahead of the caller, so the memory needed does not grow with the file size.
+ */
+public class ParallelPlayerReader {
+
+  private static final int DEFAULT_CHUNK_SIZE = 8 << 20; // bytes per chunk
+
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+
+  public ParallelPlayerReader() {
+    this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param pool      the pool that parses the chunks
+   * @param chunkSize the approximate number of bytes per chunk
+   */
+  public ParallelPlayerReader(ForkJoinPool pool, int chunkSize) {
+    if (chunkSize <= 0)
+      throw new IllegalArgumentException("The chunk size must be positive.");
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Reads all players of the given file and passes them to the sink in file order. The sink is
+   * only called from the calling thread.
+   * 
+   * @param file the player stats file to read
+   * @param sink receives every player that was read
+   * @throws FileNotFoundException when the file does not exist
+   * @throws IOException           when the file cannot be read
+   * @throws DataFormatException   when PlayerStatsReader rejects a part of the file, or a line of a
+   *                               data set with seasons is malformed
+   */
+  public void readDataSet(Path file, Consumer<Player> sink)
+      throws FileNotFoundException, IOException, DataFormatException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      throw new FileNotFoundException(file.toString());
+    }
+    try {
+      long fileSize = channel.size();
+      long dataStart = skipLine(channel, 0); // the header is the first line
+      final String header = decode(channel, 0, dataStart);
+      final int[] columns = seasonColumns(header);
+
+      // parse at most a few chunks per worker ahead of the sink
+      int window = Math.max(2, 2 * pool.getParallelism());
+      Deque<Future<List<Player>>> inFlight = new ArrayDeque<Future<List<Player>>>();
+      long start = dataStart;
+      while (start < fileSize || !inFlight.isEmpty()) {
+        while (start < fileSize && inFlight.size() < window) {
+          long end = nextLineStart(channel, Math.min(fileSize, start + chunkSize));
+          inFlight.addLast(pool.submit(parseTask(channel, header, columns, start, end)));
+          start = end;
+        }
+        for (Player p : await(inFlight.removeFirst())) {
+          sink.accept(p);
+        }
+      }
+    } finally {
+      // let chunks that are still being parsed after a failure see a closed channel and stop
+      channel.close();
+    }
+  }
+
+  /**
+   * Creates the task that parses the bytes between start and end of the file.
+   *
+   * @param columns the columns of a data set with seasons, see seasonColumns, or null
+   */
+  private Callable<List<Player>> parseTask(final FileChannel channel, final String header, final int[] columns,
+      final long start, final long end) {
+    return new Callable<List<Player>>() {
+      @Override
+      public List<Player> call() throws IOException, DataFormatException {
+        String chunk = decode(channel, start, end);
+        if (columns != null)
+          return parseSeasons(chunk, columns);
+        BufferedReader reader = new BufferedReader(new StringReader(header + chunk));
+        List<Player> players = new PlayerStatsReader().readDataSet(reader);
+        return players == null ? new ArrayList<Player>() : players;
+      }
+    };
+  }
+
+  private static final String[] SEASON_COLUMNS = { "ID", "Name", "Team", "Season", "PPG", "RPG", "APG" };
+
+  /**
+   * Finds the columns of a data set with seasons in its header.
+   *
+   * @return the position of every column of SEASON_COLUMNS in the header, or null when the header
+   *         has no Season column
+   * @throws DataFormatException when the header has a Season column but lacks another column
+   */
+  static int[] seasonColumns(String header) throws DataFormatException {
+    String[] names = header.trim().split(",");
+    int[] columns = new int[SEASON_COLUMNS.length];
+    Arrays.fill(columns, -1);
+    for (int i = 0; i < names.length; i++) {
+      for (int column = 0; column < SEASON_COLUMNS.length; column++) {
+        if (SEASON_COLUMNS[column].equalsIgnoreCase(names[i].trim()))
+          columns[column] = i;
+      }
+    }
+    if (columns[3] < 0)
+      return null;
+    for (int column = 0; column < SEASON_COLUMNS.length; column++) {
+      if (columns[column] < 0)
+        throw new DataFormatException("The data set has seasons but no " + SEASON_COLUMNS[column] + " column");
+    }
+    return columns;
+  }
+
+  /**
+   * Parses the lines of a data set with seasons. Empty lines are skipped and an empty stat is a
+   * missing value.
+   */
+  private static List<Player> parseSeasons(String chunk, int[] columns) throws DataFormatException {
+    List<Player> players = new ArrayList<Player>();
+    int width = 0;
+    for (int column : columns) {
+      width = Math.max(width, column + 1);
+    }
+    for (String line : chunk.split("\r?\n")) {
+      if (line.trim().isEmpty())
+        continue;
+      String[] fields = line.split(",", -1);
+      if (fields.length < width)
+        throw new DataFormatException("The line has too few fields: " + line);
+      try {
+        players.add(new Player(fields[columns[0]].trim(), fields[columns[1]].trim(), fields[columns[2]].trim(),
+            Integer.parseInt(fields[columns[3]].trim()), stat(fields[columns[4]]), stat(fields[columns[5]]),
+            stat(fields[columns[6]])));
+      } catch (NumberFormatException e) {
+        throw new DataFormatException("The line has a malformed number: " + line);
+      }
+    }
+    return players;
+  }
+
+  private static Double stat(String field) {
+    String value = field.trim();
+    return value.isEmpty() ? null : Double.valueOf(value);
+  }
+
+  /**
+   * Waits for a parse task and rethrows its failure as the checked exception it was raised with.
+   */
+  private static List<Player> await(Future<List<Player>> task) throws IOException, DataFormatException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading the data set", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof DataFormatException)
+        throw (DataFormatException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Finds the start of the first line that begins at or after the given position, which must be
+   * greater than 0.
+   * 
+   * @return the line start, or the size of the file when no line begins at or after pos
+   */
+  private static long nextLineStart(FileChannel channel, long pos) throws IOException {
+    if (pos >= channel.size())
+      return channel.size();
+    // pos is a line start when the byte before it ends a line
+    return skipLine(channel, pos - 1);
+  }
+
+  /**
+   * @return the position right after the first line break at or after pos, or the size of the
+   *         file when there is none
+   */
+  private static long skipLine(FileChannel channel, long pos) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, pos);
+      if (read <= 0)
+        return channel.size();
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n')
+          return pos + i + 1;
+      }
+      pos += read;
+    }
+  }
+
+  /**
+   * Maps the bytes between start and end of the file and decodes them as UTF-8 text. A line break
+   * never falls inside a multi-byte character, so chunks cut at line breaks decode cleanly.
+   */
+  private static String decode(FileChannel channel, long start, long end) throws IOException {
+    if (end <= start)
+      return "";
+    ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+}
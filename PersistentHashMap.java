@@ -0,0 +1,277 @@
+import java.util.Arrays;
+
+/**
+ * A persistent hash map, implemented as a hash array mapped trie. Every level of the trie uses
+ * five bits of the key's hash to pick one of up to 32 slots, and a node only stores the slots that
+ * are in use, so a lookup takes at most seven small array reads whatever the size of the map and
+ * is in practice constant time.
+ *
+ * Like PersistentRedBlackTree, a map is never changed once it is created: put and remove copy the
+ * nodes on the path to the changed slot and share all others, so a map can be read by many threads
+ * without locks while a writer builds the next version.
+ *
+ * Keys and values cannot be null.
+ */
+public final class PersistentHashMap<K, V> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  /**
+   * A node of the trie.
+   */
+  private interface Node {
+    Object get(int hash, int shift, Object key);
+
+    /**
+     * @param added set to true when the key was not in the node yet
+     * @return the node with the key mapped to the value, this node when nothing changed
+     */
+    Node put(int hash, int shift, Object key, Object value, boolean[] added);
+
+    /**
+     * @return the node without the key, this node when the key is not in it, or null when the
+     *         node is left empty
+     */
+    Node remove(int hash, int shift, Object key);
+  }
+
+  /**
+   * A node that stores the slots in use as consecutive pairs of the array, in the order of their
+   * bits in the bitmap. A pair is either a key and its value, or null and a child node that holds
+   * all keys of the slot.
+   */
+  private static final class BitmapNode implements Node {
+    private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+    private final Object[] pairs;
+
+    private BitmapNode(int bitmap, Object[] pairs) {
+      this.bitmap = bitmap;
+      this.pairs = pairs;
+    }
+
+    private int index(int bit) {
+      return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    public Object get(int hash, int shift, Object key) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((bitmap & bit) == 0)
+        return null;
+      int index = index(bit);
+      Object storedKey = pairs[index];
+      if (storedKey == null)
+        return ((Node) pairs[index + 1]).get(hash, shift + BITS, key);
+      return key.equals(storedKey) ? pairs[index + 1] : null;
+    }
+
+    @Override
+    public Node put(int hash, int shift, Object key, Object value, boolean[] added) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      int index = index(bit);
+      if ((bitmap & bit) == 0) {
+        added[0] = true;
+        Object[] copy = new Object[pairs.length + 2];
+        System.arraycopy(pairs, 0, copy, 0, index);
+        copy[index] = key;
+        copy[index + 1] = value;
+        System.arraycopy(pairs, index, copy, index + 2, pairs.length - index);
+        return new BitmapNode(bitmap | bit, copy);
+      }
+      Object storedKey = pairs[index];
+      Object storedValue = pairs[index + 1];
+      if (storedKey == null) {
+        Node child = ((Node) storedValue).put(hash, shift + BITS, key, value, added);
+        return child == storedValue ? this : with(index, null, child);
+      }
+      if (key.equals(storedKey))
+        return storedValue == value ? this : with(index, key, value);
+      // two keys share the slot, so they move one level down
+      added[0] = true;
+      return with(index, null, pair(shift + BITS, storedKey, storedValue, hash, key, value));
+    }
+
+    @Override
+    public Node remove(int hash, int shift, Object key) {
+      int bit = 1 << ((hash >>> shift) & MASK);
+      if ((bitmap & bit) == 0)
+        return this;
+      int index = index(bit);
+      Object storedKey = pairs[index];
+      if (storedKey == null) {
+        Node child = ((Node) pairs[index + 1]).remove(hash, shift + BITS, key);
+        if (child == pairs[index + 1])
+          return this;
+        if (child != null)
+          return with(index, null, child);
+      } else if (!key.equals(storedKey)) {
+        return this;
+      }
+      if (bitmap == bit)
+        return null;
+      Object[] copy = new Object[pairs.length - 2];
+      System.arraycopy(pairs, 0, copy, 0, index);
+      System.arraycopy(pairs, index + 2, copy, index, pairs.length - index - 2);
+      return new BitmapNode(bitmap & ~bit, copy);
+    }
+
+    private BitmapNode with(int index, Object key, Object value) {
+      Object[] copy = pairs.clone();
+      copy[index] = key;
+      copy[index + 1] = value;
+      return new BitmapNode(bitmap, copy);
+    }
+  }
+
+  /**
+   * A node for keys whose hashes are equal in all 32 bits, stored as key and value pairs.
+   */
+  private static final class CollisionNode implements Node {
+    private final int hash;
+    private final Object[] pairs;
+
+    private CollisionNode(int hash, Object[] pairs) {
+      this.hash = hash;
+      this.pairs = pairs;
+    }
+
+    private int index(Object key) {
+      for (int i = 0; i < pairs.length; i += 2) {
+        if (key.equals(pairs[i]))
+          return i;
+      }
+      return -1;
+    }
+
+    @Override
+    public Object get(int hash, int shift, Object key) {
+      if (hash != this.hash)
+        return null;
+      int index = index(key);
+      return index < 0 ? null : pairs[index + 1];
+    }
+
+    @Override
+    public Node put(int hash, int shift, Object key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        // a key with another hash reached this slot, so the slot becomes a bitmap node that
+        // holds this node as its only child
+        BitmapNode parent = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] { null, this });
+        return parent.put(hash, shift, key, value, added);
+      }
+      int index = index(key);
+      if (index >= 0) {
+        if (pairs[index + 1] == value)
+          return this;
+        Object[] copy = pairs.clone();
+        copy[index + 1] = value;
+        return new CollisionNode(hash, copy);
+      }
+      added[0] = true;
+      Object[] copy = Arrays.copyOf(pairs, pairs.length + 2);
+      copy[pairs.length] = key;
+      copy[pairs.length + 1] = value;
+      return new CollisionNode(hash, copy);
+    }
+
+    @Override
+    public Node remove(int hash, int shift, Object key) {
+      int index = hash == this.hash ? index(key) : -1;
+      if (index < 0)
+        return this;
+      if (pairs.length == 2)
+        return null;
+      Object[] copy = new Object[pairs.length - 2];
+      System.arraycopy(pairs, 0, copy, 0, index);
+      System.arraycopy(pairs, index + 2, copy, index, pairs.length - index - 2);
+      return new CollisionNode(hash, copy);
+    }
+  }
+
+  /**
+   * Creates the node at the given level for two keys that shared a slot of the level above.
+   */
+  private static Node pair(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+    int hash1 = hash(key1);
+    if (hash1 == hash2)
+      return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+    // the hashes differ in some bit, so they end up in different slots by the last level
+    boolean[] added = new boolean[1];
+    return BitmapNode.EMPTY.put(hash1, shift, key1, value1, added).put(hash2, shift, key2, value2, added);
+  }
+
+  private static int hash(Object key) {
+    return key.hashCode();
+  }
+
+  private final Node root;
+  private final int size;
+
+  /**
+   * Creates an empty map.
+   */
+  public PersistentHashMap() {
+    this(BitmapNode.EMPTY, 0);
+  }
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * @return the value of the key, or null when the map does not contain the key
+   */
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    if (key == null)
+      throw new NullPointerException("This PersistentHashMap cannot store null references.");
+    return (V) root.get(hash(key), 0, key);
+  }
+
+  public boolean containsKey(K key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Returns a map that also maps the key to the value, replacing a previous value of the key. This
+   * map is not changed.
+   *
+   * @return the new version of the map, or this map when the key already has this value
+   */
+  public PersistentHashMap<K, V> put(K key, V value) {
+    if (key == null || value == null)
+      throw new NullPointerException("This PersistentHashMap cannot store null references.");
+    boolean[] added = new boolean[1];
+    Node newRoot = root.put(hash(key), 0, key, value, added);
+    return newRoot == root ? this : new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * Returns a map without the key. This map is not changed.
+   *
+   * @return the new version of the map, or this map when it does not contain the key
+   */
+  public PersistentHashMap<K, V> remove(K key) {
+    if (key == null)
+      throw new NullPointerException("This PersistentHashMap cannot store null references.");
+    Node newRoot = root.remove(hash(key), 0, key);
+    if (newRoot == root)
+      return this;
+    return new PersistentHashMap<K, V>(newRoot == null ? BitmapNode.EMPTY : newRoot, size - 1);
+  }
+
+  /**
+   * @return the number of keys in this map
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+}
@@ -0,0 +1,603 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Persistent (immutable) red-black tree. Nodes are never changed after they are created: insert
+ * and remove copy only the nodes on the path from the root to the changed position and return a
+ * new tree that shares all other nodes with the old one. A tree value can therefore be handed to
+ * any number of threads and read without locks while newer versions are being built, and versions
+ * that are no longer referenced are reclaimed by the garbage collector.
+ *
+ * Insertion rebalances with the four-case balance of Okasaki, deletion follows Kahrs ("Red-black
+ * trees with types", 2001). Like RedBlackTree, this tree does not hold null references nor
+ * duplicate values, and every node records the size of its subtree.
+ */
+public final class PersistentRedBlackTree<T extends Comparable<T>> implements Iterable<T> {
+
+  /**
+   * Immutable node. The subtree size is computed once when the node is created.
+   */
+  private static final class Node<T> {
+    final T data;
+    final boolean isBlack;
+    final Node<T> leftChild;
+    final Node<T> rightChild;
+    final int subtreeSize;
+
+    Node(Node<T> leftChild, T data, Node<T> rightChild, boolean isBlack) {
+      this.data = data;
+      this.isBlack = isBlack;
+      this.leftChild = leftChild;
+      this.rightChild = rightChild;
+      this.subtreeSize = 1 + sizeOf(leftChild) + sizeOf(rightChild);
+    }
+  }
+
+  private final Node<T> root; // null when empty
+  private final Comparator<? super T> comparator; // null when the natural ordering is used
+
+  /**
+   * Creates an empty tree that orders its values by their natural ordering (compareTo).
+   */
+  public PersistentRedBlackTree() {
+    this(null, null);
+  }
+
+  /**
+   * Creates an empty tree that orders its values by the provided comparator.
+   *
+   * @param comparator the ordering of this tree, or null to use the natural ordering
+   */
+  public PersistentRedBlackTree(Comparator<? super T> comparator) {
+    this(null, comparator);
+  }
+
+  private PersistentRedBlackTree(Node<T> root, Comparator<? super T> comparator) {
+    this.root = root;
+    this.comparator = comparator;
+  }
+
+  /**
+   * Builds a tree from the values of a collection in any order, sorting them once and building
+   * the tree bottom-up in linear time with fromSorted.
+   *
+   * @param values     the values to store, which must not contain null or duplicates
+   * @param comparator the ordering of the new tree, or null to use the natural ordering
+   * @return a new tree holding the values
+   * @throws NullPointerException     when the collection contains null
+   * @throws IllegalArgumentException when the collection contains duplicate values
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Comparable<T>> PersistentRedBlackTree<T> buildFrom(Collection<T> values,
+      Comparator<? super T> comparator) throws NullPointerException, IllegalArgumentException {
+    T[] sorted = (T[]) values.toArray(new Comparable<?>[values.size()]);
+    for (T value : sorted) {
+      if (value == null)
+        throw new NullPointerException("This PersistentRedBlackTree cannot store null references.");
+    }
+    Comparator<? super T> order = comparator;
+    if (order == null)
+      order = Comparator.naturalOrder();
+    Arrays.parallelSort(sorted, order);
+    return fromSorted(Arrays.asList(sorted), comparator);
+  }
+
+  /**
+   * Builds a tree in linear time from values that are already sorted by the given ordering, for
+   * example values read back in the order they were saved in.
+   *
+   * @param sorted     the values in strictly ascending order
+   * @param comparator the ordering of the new tree, or null to use the natural ordering
+   * @return a new tree holding the values
+   * @throws NullPointerException     when one of the values is null
+   * @throws IllegalArgumentException when the values are not strictly ascending (which includes
+   *                                  duplicates)
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Comparable<T>> PersistentRedBlackTree<T> fromSorted(List<T> sorted,
+      Comparator<? super T> comparator) throws NullPointerException, IllegalArgumentException {
+    T[] values = (T[]) sorted.toArray(new Comparable<?>[sorted.size()]);
+    Comparator<? super T> order = comparator;
+    if (order == null)
+      order = Comparator.naturalOrder();
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == null)
+        throw new NullPointerException("This PersistentRedBlackTree cannot store null references.");
+      if (i > 0 && order.compare(values[i - 1], values[i]) >= 0)
+        throw new IllegalArgumentException("The values are not sorted or contain duplicates.");
+    }
+    // the deepest level is only partly filled when n + 1 is no power of two, its nodes are red
+    int redDepth = 31 - Integer.numberOfLeadingZeros(values.length + 1);
+    return new PersistentRedBlackTree<T>(build(values, 0, values.length, 0, redDepth), comparator);
+  }
+
+  /**
+   * Builds a balanced subtree from the sorted values between lo (inclusive) and hi (exclusive).
+   */
+  private static <T> Node<T> build(T[] sorted, int lo, int hi, int depth, int redDepth) {
+    if (lo >= hi)
+      return null;
+    int mid = lo + (hi - lo - 1) / 2;
+    return new Node<T>(build(sorted, lo, mid, depth + 1, redDepth), sorted[mid],
+        build(sorted, mid + 1, hi, depth + 1, redDepth), depth != redDepth);
+  }
+
+  private int compare(T a, T b) {
+    return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+  }
+
+  /**
+   * @return the ordering of this tree, or null when the natural ordering is used
+   */
+  public Comparator<? super T> comparator() {
+    return comparator;
+  }
+
+  /**
+   * @return the number of values in this tree
+   */
+  public int size() {
+    return sizeOf(root);
+  }
+
+  public boolean isEmpty() {
+    return root == null;
+  }
+
+  /**
+   * @return the number of nodes on the longest path from the root to a leaf, 0 for an empty tree
+   */
+  public int height() {
+    return height(root);
+  }
+
+  private static int height(Node<?> subtree) {
+    return subtree == null ? 0 : 1 + Math.max(height(subtree.leftChild), height(subtree.rightChild));
+  }
+
+  /**
+   * @return the number of black nodes on every path from the root to a leaf
+   */
+  public int blackHeight() {
+    int blackHeight = 0;
+    for (Node<T> node = root; node != null; node = node.leftChild) {
+      if (node.isBlack)
+        blackHeight++;
+    }
+    return blackHeight;
+  }
+
+  /**
+   * Checks that the root is black, that no red node has a red child, that every path has the same
+   * number of black nodes and that the values are in order. Used by PlayerChecks.
+   *
+   * @throws IllegalStateException describing the first violation found
+   */
+  void checkInvariants() throws IllegalStateException {
+    if (root != null && !root.isBlack)
+      throw new IllegalStateException("The root is red.");
+    checkInvariants(root, null, null);
+  }
+
+  /**
+   * @return the number of black nodes on every path from the subtree's root down to a null child
+   */
+  private int checkInvariants(Node<T> node, T lo, T hi) {
+    if (node == null)
+      return 1;
+    if ((lo != null && compare(lo, node.data) >= 0) || (hi != null && compare(node.data, hi) >= 0))
+      throw new IllegalStateException(node.data + " is out of order.");
+    if (!node.isBlack && (isRed(node.leftChild) || isRed(node.rightChild)))
+      throw new IllegalStateException("Red " + node.data + " has a red child.");
+    int blackHeight = checkInvariants(node.leftChild, lo, node.data);
+    if (blackHeight != checkInvariants(node.rightChild, node.data, hi))
+      throw new IllegalStateException("The black heights below " + node.data + " differ.");
+    return blackHeight + (node.isBlack ? 1 : 0);
+  }
+
+  /**
+   * Returns a tree that holds the values of this tree and data. This tree is not changed.
+   *
+   * @param data the value to add
+   * @return the new version of the tree
+   * @throws NullPointerException     when data is null
+   * @throws IllegalArgumentException when this tree already contains a value equal to data
+   */
+  public PersistentRedBlackTree<T> insert(T data) throws NullPointerException, IllegalArgumentException {
+    if (data == null)
+      throw new NullPointerException("This PersistentRedBlackTree cannot store null references.");
+    return new PersistentRedBlackTree<T>(blacken(insert(root, data)), comparator);
+  }
+
+  private Node<T> insert(Node<T> node, T data) {
+    if (node == null)
+      return red(null, data, null);
+    int compare = compare(data, node.data);
+    if (compare == 0)
+      throw new IllegalArgumentException("This PersistentRedBlackTree already contains that value.");
+    if (node.isBlack) {
+      return compare < 0 ? balance(insert(node.leftChild, data), node.data, node.rightChild)
+          : balance(node.leftChild, node.data, insert(node.rightChild, data));
+    }
+    return compare < 0 ? red(insert(node.leftChild, data), node.data, node.rightChild)
+        : red(node.leftChild, node.data, insert(node.rightChild, data));
+  }
+
+  /**
+   * Returns a tree that holds the values of this tree except the one equal to data. This tree is
+   * not changed.
+   *
+   * @param data the value to remove
+   * @return the new version of the tree, or this tree when it does not contain data
+   * @throws NullPointerException when data is null
+   */
+  public PersistentRedBlackTree<T> remove(T data) throws NullPointerException {
+    if (!contains(data))
+      return this;
+    return new PersistentRedBlackTree<T>(blacken(remove(root, data)), comparator);
+  }
+
+  /**
+   * Removes data, which must be present, from the subtree. When the subtree has a black root the
+   * result has one black node less on every path, which the caller repairs with balanceLeft or
+   * balanceRight.
+   */
+  private Node<T> remove(Node<T> node, T data) {
+    int compare = compare(data, node.data);
+    if (compare < 0) {
+      if (node.leftChild.isBlack)
+        return balanceLeft(remove(node.leftChild, data), node.data, node.rightChild);
+      return red(remove(node.leftChild, data), node.data, node.rightChild);
+    } else if (compare > 0) {
+      if (node.rightChild.isBlack)
+        return balanceRight(node.leftChild, node.data, remove(node.rightChild, data));
+      return red(node.leftChild, node.data, remove(node.rightChild, data));
+    }
+    return append(node.leftChild, node.rightChild);
+  }
+
+  /**
+   * Joins two subtrees of equal black height whose values are all ordered left before right.
+   */
+  private Node<T> append(Node<T> left, Node<T> right) {
+    if (left == null)
+      return right;
+    if (right == null)
+      return left;
+    if (isRed(left) && isRed(right)) {
+      Node<T> middle = append(left.rightChild, right.leftChild);
+      if (isRed(middle))
+        return red(red(left.leftChild, left.data, middle.leftChild), middle.data,
+            red(middle.rightChild, right.data, right.rightChild));
+      return red(left.leftChild, left.data, red(middle, right.data, right.rightChild));
+    }
+    if (left.isBlack && right.isBlack) {
+      Node<T> middle = append(left.rightChild, right.leftChild);
+      if (isRed(middle))
+        return red(black(left.leftChild, left.data, middle.leftChild), middle.data,
+            black(middle.rightChild, right.data, right.rightChild));
+      return balanceLeft(left.leftChild, left.data, black(middle, right.data, right.rightChild));
+    }
+    if (isRed(right))
+      return red(append(left, right.leftChild), right.data, right.rightChild);
+    return red(left.leftChild, left.data, append(left.rightChild, right));
+  }
+
+  /**
+   * Rebuilds a node whose left subtree is one black node short.
+   */
+  private Node<T> balanceLeft(Node<T> left, T data, Node<T> right) {
+    if (isRed(left))
+      return red(blacken(left), data, right);
+    if (right.isBlack)
+      return balance(left, data, redden(right));
+    // the right child is red with a black left child
+    return red(black(left, data, right.leftChild.leftChild), right.leftChild.data,
+        balance(right.leftChild.rightChild, right.data, redden(right.rightChild)));
+  }
+
+  /**
+   * Rebuilds a node whose right subtree is one black node short.
+   */
+  private Node<T> balanceRight(Node<T> left, T data, Node<T> right) {
+    if (isRed(right))
+      return red(left, data, blacken(right));
+    if (left.isBlack)
+      return balance(redden(left), data, right);
+    // the left child is red with a black right child
+    return red(balance(redden(left.leftChild), left.data, left.rightChild.leftChild),
+        left.rightChild.data, black(left.rightChild.rightChild, data, right));
+  }
+
+  /**
+   * Builds a node from a value and two subtrees that may contain a red node with a red child
+   * directly below the new node. Such a red-red pair is rotated into a red node with two black
+   * children, otherwise the new node is black.
+   */
+  private static <T> Node<T> balance(Node<T> left, T data, Node<T> right) {
+    if (isRed(left) && isRed(right))
+      return red(blacken(left), data, blacken(right));
+    if (isRed(left) && isRed(left.leftChild))
+      return red(blacken(left.leftChild), left.data, black(left.rightChild, data, right));
+    if (isRed(left) && isRed(left.rightChild))
+      return red(black(left.leftChild, left.data, left.rightChild.leftChild), left.rightChild.data,
+          black(left.rightChild.rightChild, data, right));
+    if (isRed(right) && isRed(right.rightChild))
+      return red(black(left, data, right.leftChild), right.data, blacken(right.rightChild));
+    if (isRed(right) && isRed(right.leftChild))
+      return red(black(left, data, right.leftChild.leftChild), right.leftChild.data,
+          black(right.leftChild.rightChild, right.data, right.rightChild));
+    return black(left, data, right);
+  }
+
+  private static <T> Node<T> red(Node<T> left, T data, Node<T> right) {
+    return new Node<T>(left, data, right, false);
+  }
+
+  private static <T> Node<T> black(Node<T> left, T data, Node<T> right) {
+    return new Node<T>(left, data, right, true);
+  }
+
+  private static <T> Node<T> blacken(Node<T> node) {
+    return node == null || node.isBlack ? node : black(node.leftChild, node.data, node.rightChild);
+  }
+
+  private static <T> Node<T> redden(Node<T> node) {
+    return red(node.leftChild, node.data, node.rightChild);
+  }
+
+  private static boolean isRed(Node<?> node) {
+    return node != null && !node.isBlack;
+  }
+
+  private static int sizeOf(Node<?> node) {
+    return node == null ? 0 : node.subtreeSize;
+  }
+
+  /**
+   * Checks whether the tree contains a value equal to data.
+   */
+  public boolean contains(T data) {
+    if (data == null)
+      throw new NullPointerException("This PersistentRedBlackTree cannot store null references.");
+    Node<T> current = root;
+    while (current != null) {
+      int compare = compare(data, current.data);
+      if (compare == 0)
+        return true;
+      current = compare < 0 ? current.leftChild : current.rightChild;
+    }
+    return false;
+  }
+
+  /**
+   * Looks up a value with a single descent from the root, see RedBlackTree.get.
+   *
+   * @param key the probe that is compared against the stored values
+   * @return a stored value that the key compares equal to, or null if there is none
+   */
+  public T get(Comparable<? super T> key) {
+    if (key == null)
+      throw new NullPointerException("This PersistentRedBlackTree cannot store null references.");
+    Node<T> current = root;
+    while (current != null) {
+      int compare = key.compareTo(current.data);
+      if (compare == 0)
+        return current.data;
+      current = compare < 0 ? current.leftChild : current.rightChild;
+    }
+    return null;
+  }
+
+  /**
+   * Finds the ceiling of every key of a batch in one left to right pass: the first value that the
+   * key does not compare greater than. The keys must be sorted in the order of this tree. Each key
+   * is a finger search that starts from the path to the ceiling of the key before it, so a key
+   * costs a walk up and down over the values between the two ceilings rather than a descent from
+   * the root, and a batch of k keys over n values takes O(k log(n / k)) comparisons.
+   *
+   * @param sortedKeys the probes, in the order of this tree
+   * @return the ceiling of each key in the same order, null for a key greater than all values
+   */
+  public List<T> ceilings(List<? extends Comparable<? super T>> sortedKeys) {
+    List<T> ceilings = new ArrayList<T>(sortedKeys.size());
+    PathIterator path = null;
+    for (Comparable<? super T> key : sortedKeys) {
+      if (key == null)
+        throw new NullPointerException("This PersistentRedBlackTree cannot store null references.");
+      if (path == null) {
+        path = (PathIterator) rangeIterator(key, null);
+      } else {
+        path.seek(key);
+      }
+      ceilings.add(path.hasNext() ? path.stack[path.depth - 1].data : null);
+    }
+    return ceilings;
+  }
+
+  /**
+   * @return the value that has exactly index smaller values in this tree
+   * @throws IndexOutOfBoundsException when index is negative or not smaller than size()
+   */
+  public T select(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for size " + size());
+    Node<T> current = root;
+    while (true) {
+      int leftSize = sizeOf(current.leftChild);
+      if (index < leftSize) {
+        current = current.leftChild;
+      } else if (index == leftSize) {
+        return current.data;
+      } else {
+        index -= leftSize + 1;
+        current = current.rightChild;
+      }
+    }
+  }
+
+  /**
+   * @return the number of values in this tree that the key compares greater than
+   */
+  public int rank(Comparable<? super T> key) {
+    if (key == null)
+      throw new NullPointerException("This PersistentRedBlackTree cannot store null references.");
+    int rank = 0;
+    Node<T> current = root;
+    while (current != null) {
+      if (key.compareTo(current.data) > 0) {
+        rank += sizeOf(current.leftChild) + 1;
+        current = current.rightChild;
+      } else {
+        current = current.leftChild;
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Returns an iterator over the values in in-order (sorted) order.
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return iteratorFrom(0);
+  }
+
+  /**
+   * Returns an iterator over the values in in-order (sorted) order that are at or after the from key
+   * and before the to key, see RedBlackTree.rangeIterator.
+   *
+   * @param from the inclusive lower bound, or null to start at the smallest value
+   * @param to   the exclusive upper bound, or null to continue to the greatest value
+   */
+  public Iterator<T> rangeIterator(Comparable<? super T> from, Comparable<? super T> to) {
+    PathIterator iterator = new PathIterator(to);
+    // remember every node on the path to the first value where the path turns left, those are
+    // the nodes whose values come next in in-order sequence
+    Node<T> current = root;
+    while (current != null) {
+      if (from == null || from.compareTo(current.data) <= 0) {
+        iterator.push(current);
+        current = current.leftChild;
+      } else {
+        current = current.rightChild;
+      }
+    }
+    return iterator.skipPastBound();
+  }
+
+  /**
+   * Returns an iterator over the values in in-order (sorted) order that starts at the value of the
+   * given rank.
+   *
+   * @throws IndexOutOfBoundsException when index is negative or greater than size()
+   */
+  public Iterator<T> iteratorFrom(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index > size())
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for size " + size());
+    PathIterator iterator = new PathIterator(null);
+    Node<T> current = root;
+    while (current != null) {
+      int leftSize = sizeOf(current.leftChild);
+      if (index <= leftSize) {
+        iterator.push(current);
+        if (index == leftSize)
+          break;
+        current = current.leftChild;
+      } else {
+        index -= leftSize + 1;
+        current = current.rightChild;
+      }
+    }
+    return iterator;
+  }
+
+  /**
+   * In-order iterator over immutable nodes, which have no parent references. The stack holds the
+   * nodes whose values are still to come, deepest first; its capacity covers the height of any
+   * red-black tree with up to Integer.MAX_VALUE nodes.
+   */
+  private class PathIterator implements Iterator<T> {
+    @SuppressWarnings("unchecked")
+    private final Node<T>[] stack = (Node<T>[]) new Node<?>[64];
+    private int depth = 0;
+    private final Comparable<? super T> to;
+
+    private PathIterator(Comparable<? super T> to) {
+      this.to = to;
+    }
+
+    private void push(Node<T> node) {
+      stack[depth++] = node;
+    }
+
+    /**
+     * Moves forward to the first value that the key does not compare greater than. The key must
+     * not be smaller than the value the iterator is at. Every node on the stack is smaller than
+     * the nodes below it, and its right subtree lies between the two, so the ceiling is found by
+     * popping the nodes that are smaller than the key until the key falls before the next node and
+     * then descending into the right subtree of the last popped node.
+     */
+    private void seek(Comparable<? super T> key) {
+      while (depth > 0 && key.compareTo(stack[depth - 1].data) > 0) {
+        Node<T> passed = stack[--depth];
+        if (depth == 0 || key.compareTo(stack[depth - 1].data) <= 0) {
+          for (Node<T> current = passed.rightChild; current != null;) {
+            if (key.compareTo(current.data) <= 0) {
+              push(current);
+              current = current.leftChild;
+            } else {
+              current = current.rightChild;
+            }
+          }
+          return;
+        }
+      }
+    }
+
+    /**
+     * Ends the iteration when the next value lies at or past the upper bound.
+     */
+    private PathIterator skipPastBound() {
+      if (depth > 0 && to != null && to.compareTo(stack[depth - 1].data) <= 0)
+        depth = 0;
+      return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return depth > 0;
+    }
+
+    @Override
+    public T next() {
+      if (depth == 0)
+        throw new NoSuchElementException("There are no more elements in the tree");
+      Node<T> node = stack[--depth];
+      for (Node<T> current = node.rightChild; current != null; current = current.leftChild)
+        push(current);
+      skipPastBound();
+      return node.data;
+    }
+  }
+
+  /**
+   * @return string containing the ordered values of this tree (in-order traversal)
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[ ");
+    Iterator<T> values = iterator();
+    while (values.hasNext()) {
+      sb.append(values.next());
+      if (values.hasNext())
+        sb.append(", ");
+    }
+    return sb.append(" ]").toString();
+  }
+}
@@ -2,19 +2,36 @@ public class Player implements Comparable<Player> {
 
   String playerName;
   String teamName;
-  Double RPG;
-  Double PPG;
-  Double APG;
+  // stats are kept unboxed, a missing value is stored as NaN
+  double RPG;
+  double PPG;
+  double APG;
   String ID;
+  int season; // the year the season started in, 0 when the data set has no seasons
+  String nameKey; // lower case playerName, computed once so lookups don't have to
+  String teamKey; // lower case teamName, used as the key of the team index
 
   public Player(String ID, String playerName, String teamName, Double PPG, Double RPG, Double APG) {
+    this(ID, playerName, teamName, 0, PPG, RPG, APG);
+  }
+
+  /**
+   * Creates the stats of one player in one season. The same player has the same ID in every
+   * season, and several players may have the same name.
+   *
+   * @param season the year the season started in, or 0 when it is not known
+   */
+  public Player(String ID, String playerName, String teamName, int season, Double PPG, Double RPG, Double APG) {
     super();
+    this.season = season;
     this.playerName = playerName;
     this.teamName = teamName;
-    this.RPG = RPG;
-    this.PPG = PPG;
-    this.APG = APG;
+    this.RPG = unbox(RPG);
+    this.PPG = unbox(PPG);
+    this.APG = unbox(APG);
     this.ID = ID;
+    this.nameKey = playerName == null ? null : playerName.toLowerCase();
+    this.teamKey = teamName == null ? null : teamName.toLowerCase();
   }
 
   public String getPlayerName() {
@@ -29,45 +46,69 @@ public class Player implements Comparable<Player> {
 
   public Double getAPG() {
     // TODO Auto-generated method stub
-    return this.APG;
+    return box(this.APG);
   }
 
   public Double getRPG() {
     // TODO Auto-generated method stub
-    return this.RPG;
+    return box(this.RPG);
   }
 
   public Double getPPG() {
     // TODO Auto-generated method stub
+    return box(this.PPG);
+  }
+
+  public double getAPGAsDouble() {
+    return this.APG;
+  }
+
+  public double getRPGAsDouble() {
+    return this.RPG;
+  }
+
+  public double getPPGAsDouble() {
     return this.PPG;
   }
 
+  static double unbox(Double stat) {
+    return stat == null ? Double.NaN : stat.doubleValue();
+  }
+
+  static Double box(double stat) {
+    return Double.isNaN(stat) ? null : Double.valueOf(stat);
+  }
+
   public String getID() {
     // TODO Auto-generated method stub
     return this.ID;
   }
 
+  /**
+   * @return the year the season of these stats started in, or 0 when it is not known
+   */
+  public int getSeason() {
+    return this.season;
+  }
+
   @Override
   public String toString() {
-    String toReturn = "ID " + this.ID + " Player Name " + this.playerName + "\n" + " Team " + this.teamName + "\n"
-        + " Points per game " + this.PPG + " Rebounds per game " + this.RPG + "\n" + " Assists per game " + this.APG;
+    String toReturn = "ID " + this.ID + " Player Name " + this.playerName + "\n" + " Team " + this.teamName
+        + (this.season == 0 ? "" : " Season " + this.season) + "\n"
+        + " Points per game " + getPPG() + " Rebounds per game " + getRPG() + "\n" + " Assists per game " + getAPG();
 
     return toReturn;
 
   }
 
+  /**
+   * Orders players like Backend.NAME_ORDER: by lower case name, then by name, by ID and the seasons
+   * of one player from the latest to the earliest, so that players with the same name and the
+   * seasons of one player are all distinct.
+   */
   @Override
   public int compareTo(Player otherPlayer) {
-    // TODO Auto-generated method stub
-    int compareTo = this.playerName.compareTo(otherPlayer.getPlayerName());
-    if (compareTo < 0) {
-      return -1;
-    }
-    if (compareTo == 0) {
-      return 0;
-
-    } else
-      return 1;
+    return Integer.signum(Backend.NAME_ORDER.compare(this, otherPlayer));
   }
 
 }
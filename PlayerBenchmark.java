@@ -0,0 +1,1267 @@
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures the hot paths of RedBlackTree and Backend on synthetic players, so that two commits can
+ * be compared by diffing their output. The players are generated from a fixed seed, so every run
+ * measures the same data. Each benchmark is run for a few warmup iterations, which are discarded,
+ * and then for the measured iterations.
+ *
+ * The results are written as CSV with one line per benchmark and size: the mean time per
+ * operation in nanoseconds and the standard deviation over the measured iterations. Benchmarks
+ * that count an inner step, such as comparisons, also give its mean count per operation.
+ *
+ * Usage: java PlayerBenchmark [sizes, comma separated] [output file]
+ *
+ * The benchmarks named scan.* answer the same queries by a linear pass over every player, the way
+ * Backend did before it had indexes for them, so each one is the baseline for its backend.* line.
+ *
+ * or: java PlayerBenchmark bulkload [sizes] [output file], which compares RedBlackTree.buildFrom
+ * with inserting the same shuffled Integers one at a time, for 100 thousand, 1 million and 10
+ * million values by default.
+ *
+ * or: java PlayerBenchmark insert [sizes] [output file], which compares the iterative insert and
+ * contains of RedBlackTree with the recursive ones it had before, on 1 million shuffled Integers by
+ * default, and counts the comparisons per operation.
+ *
+ * or: java PlayerBenchmark concurrent [players] [output file], which runs name lookups mixed with
+ * 1% upserts on 1, 2, 4 and so on up to 64 threads, against a RedBlackTree guarded by a StampedLock
+ * and against Backend with its lock-free persistent indexes. The time per operation is the wall
+ * time divided by the operations of all threads, so it falls as throughput grows. Each of these
+ * lines is followed by two lines ending in .read_p50 and .read_p99, which give the median and 99th
+ * percentile latency of a single lookup during the last measured iteration in the ns_per_op
+ * column. 100 thousand players are used by default.
+ *
+ * or: java PlayerBenchmark http [players] [connections, comma separated] [requests] [output file],
+ * which starts a PlayerServer on a free port and has the given numbers of clients send requests
+ * to it at once, 20 thousand per iteration by default. Nine in ten requests look up a player by
+ * name and the rest search a name prefix. Every client runs on its own thread, a virtual thread
+ * where the JDK has them, and keeps its connection open between requests. The time per operation
+ * is the wall time per request, so a billion divided by it gives requests per second, and
+ * count_per_op is the share of requests that failed. Lines ending in .request_p50 and
+ * .request_p99 give the latency percentiles of single requests in the ns_per_op column. The
+ * defaults are 100 thousand players and 1, 10, 100, 1000 and 10000 connections.
+ *
+ * or: java PlayerBenchmark fuzzy [names] [output file], which builds a BKTree over the lower case
+ * names of 1 million players by default and searches it for misspelled names, allowing one and
+ * two edits, against a brute-force pass that computes the full Levenshtein distance to every
+ * name. count_per_op is the number of names a search compared with the query, so divided by the
+ * number of names it gives the share of the tree that the search could not skip.
+ *
+ * or: java PlayerBenchmark cache [players] [capacity] [output file], which replays 2 million name
+ * lookups and 100 thousand team lookups drawn from a Zipf distribution (s = 1) over the players,
+ * by default 200 thousand of them, through a CachingBackend of the given capacity (10000 by
+ * default) and directly against Backend. Every iteration starts with an empty cache, and
+ * count_per_op of the cached lines is the share of lookups answered from the cache.
+ *
+ * or: java PlayerBenchmark batch [players] [output file], which looks up 50 thousand names in
+ * mixed case, about a tenth of them unknown, once by searchByName per name and once by a single
+ * searchByNames, on the heap and the mapped index of 200 thousand players by default. The time
+ * per operation is the time per name.
+ *
+ * or: java PlayerBenchmark query [players] [output file], which runs "team = Team3 and PPG > 20
+ * and APG between 5 and 10" and a narrow name prefix query through Backend.query, and the first
+ * one also as a filter over every player, on the heap and the mapped index of 200 thousand players
+ * by default. count_per_op is the number of players a query returned.
+ *
+ * or: java PlayerBenchmark aggregate [rows] [output file], which measures Backend.aggregate on a
+ * data set of 10 million rows by default, on fork-join pools of 1, 2, 4 and so on up to all
+ * cores. The benchmark name holds the parallelism, so the speedup is the ratio of two lines.
+ */
+public class PlayerBenchmark {
+
+  private static final long SEED = 42;
+  private static final int WARMUP_ITERATIONS = 3;
+  private static final int MEASURED_ITERATIONS = 5;
+  private static final int MAX_LOOKUPS = 1000000;
+  private static final int SCAN_LOOKUPS = 100;
+  private static final int PREFIX_LOOKUPS = 10000;
+  private static final int PREFIX_LENGTH = 3;
+  private static final int PREFIX_LIMIT = 10;
+  private static final int BULK_LOAD_WARMUP_VALUES = 10000000;
+  private static final int CONCURRENT_OPERATIONS = 200000;
+  private static final int MAX_THREADS = 64;
+  private static final int WRITE_PERCENT = 1;
+  private static final int HTTP_REQUESTS = 20000;
+  private static final int FUZZY_LOOKUPS = 30;
+  private static final int ZIPF_NAME_LOOKUPS = 2000000;
+  private static final int ZIPF_TEAM_LOOKUPS = 100000;
+  private static final double ZIPF_EXPONENT = 1.0;
+  private static final int BATCH_SIZE = 50000;
+  // a batch is a single call, which takes far more calls than the other benchmarks make to compile
+  private static final int BATCH_WARMUP_ITERATIONS = 30;
+  private static final int QUERY_REPEATS = 20;
+  private static final int TEAM_LOOKUPS = 1000;
+  private static final int SIMILAR_LOOKUPS = 200;
+  private static final int SIMILAR_K = 10;
+  private static final String[] SYLLABLES = { "an", "ber", "cal", "do", "el", "fin", "ga", "har", "is", "jo", "ka",
+      "lu", "mar", "ne", "o", "per", "qui", "ro", "sa", "tor", "u", "vin", "wa", "xa", "yo", "zi" };
+  private static final int TEAMS = 30;
+
+  // every benchmark adds to the sink, so the JIT cannot drop the work as unused
+  static volatile long sink;
+
+  /**
+   * One benchmark on one data set.
+   */
+  private abstract static class Benchmark {
+    final String name;
+    // the benchmarks that count an inner step add to this during run()
+    long counted;
+
+    Benchmark(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return the number of operations that were run
+     */
+    abstract long run() throws Exception;
+  }
+
+  public static void main(String[] args) throws FileNotFoundException, IOException, DataFormatException {
+    if (args.length > 0 && args[0].equals("aggregate")) {
+      aggregateBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 10000000,
+          args.length > 2 ? args[2] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("bulkload")) {
+      bulkLoadBenchmark(args.length > 1 ? sizes(args[1]) : new int[] { 100000, 1000000, 10000000 },
+          args.length > 2 ? args[2] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("insert")) {
+      insertBenchmark(args.length > 1 ? sizes(args[1]) : new int[] { 1000000 }, args.length > 2 ? args[2] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("concurrent")) {
+      concurrentBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 100000, args.length > 2 ? args[2] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("http")) {
+      httpBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 100000,
+          args.length > 2 ? sizes(args[2]) : new int[] { 1, 10, 100, 1000, 10000 },
+          args.length > 3 ? Integer.parseInt(args[3]) : HTTP_REQUESTS, args.length > 4 ? args[4] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("fuzzy")) {
+      fuzzyBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1000000, args.length > 2 ? args[2] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("cache")) {
+      cacheBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 200000,
+          args.length > 2 ? Integer.parseInt(args[2]) : 10000, args.length > 3 ? args[3] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("batch")) {
+      batchBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 200000, args.length > 2 ? args[2] : null);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("query")) {
+      queryBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 200000, args.length > 2 ? args[2] : null);
+      return;
+    }
+    int[] sizes = args.length > 0 ? sizes(args[0]) : new int[] { 1000, 100000, 1000000 };
+    PrintStream out = output(args.length > 1 ? args[1] : null);
+    for (int size : sizes) {
+      for (Benchmark benchmark : benchmarks(size)) {
+        measure(benchmark, size, out);
+      }
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  private static int[] sizes(String list) {
+    String[] parts = list.split(",");
+    int[] sizes = new int[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      sizes[i] = Integer.parseInt(parts[i].trim());
+    }
+    return sizes;
+  }
+
+  /**
+   * @return a stream to the given file, or System.out when there is none, after writing the header
+   */
+  private static PrintStream output(String file) throws IOException {
+    PrintStream out = file != null ? new PrintStream(Files.newOutputStream(Paths.get(file)), true, "UTF-8")
+        : System.out;
+    out.println("benchmark,size,ns_per_op,stddev_ns,count_per_op");
+    return out;
+  }
+
+  private static void measure(Benchmark benchmark, int size, PrintStream out) throws IOException, DataFormatException {
+    measure(benchmark, size, WARMUP_ITERATIONS, out);
+  }
+
+  private static void measure(Benchmark benchmark, int size, int warmupIterations, PrintStream out)
+      throws IOException, DataFormatException {
+    double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+    long counted = 0;
+    long measuredOperations = 0;
+    try {
+      for (int i = 0; i < warmupIterations + MEASURED_ITERATIONS; i++) {
+        benchmark.counted = 0;
+        long start = System.nanoTime();
+        long operations = benchmark.run();
+        long elapsed = System.nanoTime() - start;
+        if (i >= warmupIterations) {
+          nanosPerOp[i - warmupIterations] = (double) elapsed / operations;
+          counted += benchmark.counted;
+          measuredOperations += operations;
+        }
+      }
+    } catch (IOException | DataFormatException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    String countPerOp = counted > 0 ? String.format(Locale.ROOT, "%.2f", (double) counted / measuredOperations) : "";
+    out.println(String.format(Locale.ROOT, "%s,%d,%.1f,%.1f,%s", benchmark.name, size, mean(nanosPerOp),
+        stddev(nanosPerOp), countPerOp));
+  }
+
+  /**
+   * Builds trees of shuffled Integers once by bulk loading and once by inserting every value. The
+   * values are Integers rather than players, so that the largest size fits in a default heap. The
+   * sort takes about ten runs to be compiled, so small sizes get more warmup iterations.
+   */
+  private static void bulkLoadBenchmark(int[] sizes, String file) throws IOException, DataFormatException {
+    PrintStream out = output(file);
+    for (int size : sizes) {
+      final List<Integer> shuffled = new ArrayList<Integer>(size);
+      for (int i = 0; i < size; i++) {
+        shuffled.add(i);
+      }
+      Collections.shuffle(shuffled, new Random(SEED));
+      int warmupIterations = Math.max(WARMUP_ITERATIONS, BULK_LOAD_WARMUP_VALUES / size);
+      measure(new Benchmark("bulkload.insert") {
+        @Override
+        long run() {
+          RedBlackTree<Integer> tree = new RedBlackTree<Integer>();
+          for (Integer value : shuffled) {
+            tree.insert(value);
+          }
+          sink += tree.size();
+          return shuffled.size();
+        }
+      }, size, warmupIterations, out);
+      measure(new Benchmark("bulkload.buildFrom") {
+        @Override
+        long run() {
+          sink += RedBlackTree.buildFrom(shuffled).size();
+          return shuffled.size();
+        }
+      }, size, warmupIterations, out);
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  /**
+   * Inserts shuffled Integers into an empty RedBlackTree and into a RecursiveTree, then looks every
+   * value up again. Both trees compare through a comparator that counts its calls.
+   */
+  private static void insertBenchmark(int[] sizes, String file) throws IOException, DataFormatException {
+    PrintStream out = output(file);
+    for (int size : sizes) {
+      final List<Integer> shuffled = new ArrayList<Integer>(size);
+      for (int i = 0; i < size; i++) {
+        shuffled.add(i);
+      }
+      Collections.shuffle(shuffled, new Random(SEED));
+      final long[] comparisons = new long[1];
+      final Comparator<Integer> order = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          comparisons[0]++;
+          return a.compareTo(b);
+        }
+      };
+      final RedBlackTree<Integer> iterative = new RedBlackTree<Integer>(order);
+      final RecursiveTree<Integer> recursive = new RecursiveTree<Integer>(order);
+      for (Integer value : shuffled) {
+        iterative.insert(value);
+        recursive.insert(value);
+      }
+      measure(new Benchmark("insert.iterative") {
+        @Override
+        long run() {
+          RedBlackTree<Integer> tree = new RedBlackTree<Integer>(order);
+          comparisons[0] = 0;
+          for (Integer value : shuffled) {
+            tree.insert(value);
+          }
+          counted += comparisons[0];
+          sink += tree.size();
+          return shuffled.size();
+        }
+      }, size, out);
+      measure(new Benchmark("insert.recursive") {
+        @Override
+        long run() {
+          RecursiveTree<Integer> tree = new RecursiveTree<Integer>(order);
+          comparisons[0] = 0;
+          for (Integer value : shuffled) {
+            tree.insert(value);
+          }
+          counted += comparisons[0];
+          sink += tree.size();
+          return shuffled.size();
+        }
+      }, size, out);
+      measure(new Benchmark("contains.iterative") {
+        @Override
+        long run() {
+          long found = 0;
+          comparisons[0] = 0;
+          for (Integer value : shuffled) {
+            if (iterative.contains(value))
+              found++;
+          }
+          counted += comparisons[0];
+          sink += found;
+          return shuffled.size();
+        }
+      }, size, out);
+      measure(new Benchmark("contains.recursive") {
+        @Override
+        long run() {
+          long found = 0;
+          comparisons[0] = 0;
+          for (Integer value : shuffled) {
+            if (recursive.contains(value))
+              found++;
+          }
+          counted += comparisons[0];
+          sink += found;
+          return shuffled.size();
+        }
+      }, size, out);
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  /**
+   * Splits a fixed number of operations over the threads of every thread count. Each operation
+   * picks a random player and upserts it with a probability of WRITE_PERCENT, or looks it up by
+   * name otherwise. An upsert of the locked tree removes and inserts the player under the write
+   * lock, the way Backend did before it used persistent indexes.
+   */
+  private static void concurrentBenchmark(int size, String file) throws IOException, DataFormatException {
+    final List<Player> players = players(size, SEED);
+    Path dataSet = Files.createTempFile("players", ".csv");
+    dataSet.toFile().deleteOnExit();
+    writeDataSet(players, dataSet);
+    final Backend backend = new Backend(new String[] { dataSet.toString() });
+    final RedBlackTree<Player> tree = RedBlackTree.buildFrom(players, Backend.NAME_ORDER);
+    final StampedLock lock = new StampedLock();
+
+    PrintStream out = output(file);
+    for (int threads = 1; threads <= MAX_THREADS; threads *= 2) {
+      ConcurrentBenchmark locked = new ConcurrentBenchmark("concurrent.locked.t" + threads, threads) {
+        @Override
+        boolean read(Player p) {
+          long stamp = lock.readLock();
+          try {
+            return tree.contains(p);
+          } finally {
+            lock.unlockRead(stamp);
+          }
+        }
+
+        @Override
+        void write(Player p) {
+          long stamp = lock.writeLock();
+          try {
+            tree.remove(p);
+            tree.insert(p);
+          } finally {
+            lock.unlockWrite(stamp);
+          }
+        }
+      };
+      measure(locked.on(players), size, out);
+      locked.printReadLatency(size, out);
+      ConcurrentBenchmark persistent = new ConcurrentBenchmark("concurrent.persistent.t" + threads, threads) {
+        @Override
+        boolean read(Player p) {
+          return backend.searchByName(p.playerName) != null;
+        }
+
+        @Override
+        void write(Player p) {
+          backend.upsert(p);
+        }
+      };
+      measure(persistent.on(players), size, out);
+      persistent.printReadLatency(size, out);
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  /**
+   * Runs the operations of the concurrent benchmark on a number of threads and waits for all of
+   * them. The latency of every lookup is recorded in a histogram that each run starts afresh.
+   */
+  private abstract static class ConcurrentBenchmark extends Benchmark {
+    private final int threads;
+    private List<Player> players;
+    private volatile LatencyHistogram reads;
+
+    ConcurrentBenchmark(String name, int threads) {
+      super(name);
+      this.threads = threads;
+    }
+
+    ConcurrentBenchmark on(List<Player> players) {
+      this.players = players;
+      return this;
+    }
+
+    abstract boolean read(Player p);
+
+    abstract void write(Player p);
+
+    void printReadLatency(int size, PrintStream out) {
+      printLatency(name + ".read", size, reads, out);
+    }
+
+    @Override
+    long run() throws InterruptedException {
+      final int operations = CONCURRENT_OPERATIONS / threads;
+      final LatencyHistogram latencies = new LatencyHistogram();
+      reads = latencies;
+      final AtomicLong found = new AtomicLong();
+      List<Thread> workers = new ArrayList<Thread>(threads);
+      for (int t = 0; t < threads; t++) {
+        final Random random = new Random(SEED + t);
+        workers.add(new Thread(new Runnable() {
+          @Override
+          public void run() {
+            long hits = 0;
+            for (int i = 0; i < operations; i++) {
+              Player p = players.get(random.nextInt(players.size()));
+              if (random.nextInt(100) < WRITE_PERCENT) {
+                write(p);
+                continue;
+              }
+              long start = System.nanoTime();
+              boolean hit = read(p);
+              latencies.record(System.nanoTime() - start);
+              if (hit)
+                hits++;
+            }
+            found.addAndGet(hits);
+          }
+        }));
+      }
+      for (Thread worker : workers) {
+        worker.start();
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+      sink += found.get();
+      return (long) operations * threads;
+    }
+  }
+
+  /**
+   * Prints the median and the 99th percentile of the latencies as two lines, with the percentile
+   * appended to the name.
+   */
+  private static void printLatency(String name, int size, LatencyHistogram latencies, PrintStream out) {
+    out.println(String.format(Locale.ROOT, "%s_p50,%d,%d,,", name, size, latencies.percentile(50)));
+    out.println(String.format(Locale.ROOT, "%s_p99,%d,%d,,", name, size, latencies.percentile(99)));
+  }
+
+  /**
+   * Serves the players from a PlayerServer in this process and measures it with concurrent
+   * clients. The clients share the CPU with the server, so the results are a lower bound for a
+   * server on a machine of its own.
+   */
+  private static void httpBenchmark(int size, int[] connectionCounts, final int requests, String file)
+      throws IOException, DataFormatException {
+    int maxConnections = 0;
+    for (int connections : connectionCounts) {
+      maxConnections = Math.max(maxConnections, connections);
+    }
+    // lets HttpURLConnection keep every client's connection open between requests
+    System.setProperty("http.maxConnections", Integer.toString(maxConnections));
+    List<Player> players = players(size, SEED);
+    Path dataSet = Files.createTempFile("players", ".csv");
+    dataSet.toFile().deleteOnExit();
+    writeDataSet(players, dataSet);
+    final PlayerServer server = new PlayerServer(new Backend(new String[] { dataSet.toString() }), 0);
+    server.start();
+    final String base = "http://localhost:" + server.getPort();
+    final List<String> paths = new ArrayList<String>(players.size());
+    for (Player p : players) {
+      String name = p.playerName;
+      if (paths.size() % 10 == 9)
+        paths.add("/search?prefix=" + URLEncoder.encode(name.substring(0, PREFIX_LENGTH), "UTF-8"));
+      else
+        paths.add("/players/" + URLEncoder.encode(name, "UTF-8").replace("+", "%20"));
+    }
+    players = null;
+
+    PrintStream out = output(file);
+    try {
+      for (final int connections : connectionCounts) {
+        final String name = "http.c" + connections;
+        final LatencyHistogram[] latencies = new LatencyHistogram[1];
+        measure(new Benchmark(name) {
+          @Override
+          long run() throws InterruptedException {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            latencies[0] = histogram;
+            final AtomicLong remaining = new AtomicLong(requests);
+            final AtomicLong failed = new AtomicLong();
+            ExecutorService clients = PlayerServer.newThreadPerRequestExecutor();
+            for (int c = 0; c < connections; c++) {
+              final Random random = new Random(SEED + c);
+              clients.execute(new Runnable() {
+                @Override
+                public void run() {
+                  byte[] buffer = new byte[8192];
+                  while (remaining.getAndDecrement() > 0) {
+                    long start = System.nanoTime();
+                    if (!get(base + paths.get(random.nextInt(paths.size())), buffer))
+                      failed.incrementAndGet();
+                    histogram.record(System.nanoTime() - start);
+                  }
+                }
+              });
+            }
+            clients.shutdown();
+            clients.awaitTermination(1, TimeUnit.HOURS);
+            counted += failed.get();
+            sink += histogram.count();
+            return requests;
+          }
+        }, connections, out);
+        printLatency(name + ".request", connections, latencies[0], out);
+      }
+    } finally {
+      server.stop(0);
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  /**
+   * Sends one GET request and reads the whole response, so that the connection can be reused.
+   *
+   * @return true when the server answered 200
+   */
+  private static boolean get(String url, byte[] buffer) {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL(url).openConnection();
+      boolean ok = connection.getResponseCode() == 200;
+      InputStream body = ok ? connection.getInputStream() : connection.getErrorStream();
+      if (body != null) {
+        while (body.read(buffer) >= 0) {
+        }
+        body.close();
+      }
+      return ok;
+    } catch (IOException e) {
+      if (connection != null)
+        connection.disconnect();
+      return false;
+    }
+  }
+
+  /**
+   * Searches the names for copies of random names with one or two random edits (substitutions,
+   * insertions or deletions), so that every query has at least one match.
+   */
+  private static void fuzzyBenchmark(int size, String file) throws IOException, DataFormatException {
+    final List<String> names = new ArrayList<String>(size);
+    for (Player p : players(size, SEED)) {
+      names.add(p.playerName.toLowerCase());
+    }
+    Random random = new Random(SEED + 1);
+    final List<String> queries = new ArrayList<String>(FUZZY_LOOKUPS);
+    for (int i = 0; i < FUZZY_LOOKUPS; i++) {
+      StringBuilder query = new StringBuilder(names.get(random.nextInt(size)));
+      for (int edits = 1 + random.nextInt(2); edits > 0; edits--) {
+        int at = random.nextInt(query.length());
+        char c = SYLLABLES[random.nextInt(SYLLABLES.length)].charAt(0);
+        int edit = random.nextInt(3);
+        if (edit == 0)
+          query.setCharAt(at, c);
+        else if (edit == 1)
+          query.insert(at, c);
+        else if (query.length() > 1)
+          query.deleteCharAt(at);
+      }
+      queries.add(query.toString());
+    }
+
+    PrintStream out = output(file);
+    final BKTree[] tree = new BKTree[1];
+    measure(new Benchmark("fuzzy.build") {
+      @Override
+      long run() {
+        tree[0] = BKTree.buildFrom(names);
+        sink += tree[0].size();
+        return 1;
+      }
+    }, size, out);
+    for (final int maxEdits : new int[] { 1, 2 }) {
+      measure(new Benchmark("fuzzy.bktree.k" + maxEdits) {
+        @Override
+        long run() {
+          long[] distances = new long[1];
+          long found = 0;
+          for (String query : queries) {
+            found += tree[0].search(query, maxEdits, distances).size();
+          }
+          counted += distances[0];
+          sink += found;
+          return queries.size();
+        }
+      }, size, out);
+    }
+    measure(new Benchmark("fuzzy.scan") {
+      @Override
+      long run() {
+        int[][] buffer = new int[1][];
+        long found = 0;
+        for (String query : queries) {
+          for (String name : names) {
+            if (BKTree.distance(query, name, Integer.MAX_VALUE - 1, buffer) <= 2)
+              found++;
+          }
+        }
+        counted += (long) queries.size() * names.size();
+        sink += found;
+        return queries.size();
+      }
+    }, size, out);
+    if (out != System.out)
+      out.close();
+  }
+
+  /**
+   * Draws the lookups by rank from a Zipf distribution over the players in a random order, so the
+   * most popular player is asked for about twice as often as the second. A team lookup asks for
+   * the team of a player drawn the same way.
+   */
+  private static void cacheBenchmark(int size, final int capacity, String file)
+      throws IOException, DataFormatException {
+    List<Player> players = players(size, SEED);
+    Path dataSet = Files.createTempFile("players", ".csv");
+    dataSet.toFile().deleteOnExit();
+    writeDataSet(players, dataSet);
+    final Backend backend = new Backend(new String[] { dataSet.toString() });
+    Collections.shuffle(players, new Random(SEED + 1));
+    double[] cumulative = new double[size];
+    double sum = 0;
+    for (int rank = 0; rank < size; rank++) {
+      sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+      cumulative[rank] = sum;
+    }
+    Random random = new Random(SEED + 2);
+    final String[] names = new String[ZIPF_NAME_LOOKUPS];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = players.get(zipfRank(cumulative, random)).playerName;
+    }
+    final String[] teams = new String[ZIPF_TEAM_LOOKUPS];
+    for (int i = 0; i < teams.length; i++) {
+      teams[i] = players.get(zipfRank(cumulative, random)).teamName;
+    }
+    players = null;
+
+    PrintStream out = output(file);
+    measure(new Benchmark("backend.zipf.searchByName") {
+      @Override
+      long run() {
+        long found = 0;
+        for (String name : names) {
+          if (backend.searchByName(name) != null)
+            found++;
+        }
+        sink += found;
+        return names.length;
+      }
+    }, size, out);
+    measure(new Benchmark("cache.zipf.searchByName") {
+      @Override
+      long run() {
+        CachingBackend cache = new CachingBackend(backend, capacity);
+        long found = 0;
+        for (String name : names) {
+          if (cache.searchByName(name) != null)
+            found++;
+        }
+        counted += cache.nameCache().hits();
+        sink += found;
+        return names.length;
+      }
+    }, size, out);
+    measure(new Benchmark("backend.zipf.searchByTeam") {
+      @Override
+      long run() {
+        long found = 0;
+        for (String team : teams) {
+          found += backend.searchByTeam(team).size();
+        }
+        sink += found;
+        return teams.length;
+      }
+    }, size, out);
+    measure(new Benchmark("cache.zipf.searchByTeam") {
+      @Override
+      long run() {
+        CachingBackend cache = new CachingBackend(backend, capacity);
+        long found = 0;
+        for (String team : teams) {
+          found += cache.searchByTeam(team).size();
+        }
+        counted += cache.teamCache().hits();
+        sink += found;
+        return teams.length;
+      }
+    }, size, out);
+    if (out != System.out)
+      out.close();
+  }
+
+  /**
+   * @return a rank drawn from the distribution given by its cumulative weights
+   */
+  private static int zipfRank(double[] cumulative, Random random) {
+    int rank = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+    return Math.min(rank >= 0 ? rank : -rank - 1, cumulative.length - 1);
+  }
+
+  private static void batchBenchmark(int size, String file) throws IOException, DataFormatException {
+    List<Player> players = players(size, SEED);
+    Path dataSet = Files.createTempFile("players", ".csv");
+    dataSet.toFile().deleteOnExit();
+    Paths.get(dataSet + ".idx").toFile().deleteOnExit();
+    writeDataSet(players, dataSet);
+    Random random = new Random(SEED + 1);
+    final List<String> names = new ArrayList<String>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      String name = players.get(random.nextInt(size)).playerName;
+      if (random.nextBoolean())
+        name = name.toUpperCase();
+      if (random.nextInt(10) == 0)
+        name += "zz";
+      names.add(name);
+    }
+    players = null;
+
+    PrintStream out = output(file);
+    for (String index : new String[] { "heap", Backend.MAPPED_INDEX }) {
+      if (index.equals(Backend.MAPPED_INDEX))
+        System.setProperty(Backend.INDEX_PROPERTY, index);
+      final Backend backend = new Backend(new String[] { dataSet.toString() });
+      System.clearProperty(Backend.INDEX_PROPERTY);
+      measure(new Benchmark("batch." + index + ".searchByName") {
+        @Override
+        long run() {
+          long found = 0;
+          for (String name : names) {
+            if (backend.searchByName(name) != null)
+              found++;
+          }
+          sink += found;
+          return names.size();
+        }
+      }, size, BATCH_WARMUP_ITERATIONS, out);
+      measure(new Benchmark("batch." + index + ".searchByNames") {
+        @Override
+        long run() {
+          sink += backend.searchByNames(names).size();
+          return names.size();
+        }
+      }, size, BATCH_WARMUP_ITERATIONS, out);
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  private static void queryBenchmark(int size, String file) throws IOException, DataFormatException {
+    List<Player> players = players(size, SEED);
+    Path dataSet = Files.createTempFile("players", ".csv");
+    dataSet.toFile().deleteOnExit();
+    Paths.get(dataSet + ".idx").toFile().deleteOnExit();
+    writeDataSet(players, dataSet);
+    final PlayerQuery teamAndStats = PlayerQuery.and(PlayerQuery.team("Team3"), PlayerQuery.statAbove(Stat.PPG, 20),
+        PlayerQuery.statBetween(Stat.APG, 5, 10));
+    String name = players.get(new Random(SEED + 1).nextInt(size)).playerName;
+    final PlayerQuery prefix = PlayerQuery.and(PlayerQuery.namePrefix(name.substring(0, Math.min(name.length(), 6))),
+        PlayerQuery.statAbove(Stat.PPG, 1));
+    players = null;
+
+    PrintStream out = output(file);
+    for (String index : new String[] { "heap", Backend.MAPPED_INDEX }) {
+      if (index.equals(Backend.MAPPED_INDEX))
+        System.setProperty(Backend.INDEX_PROPERTY, index);
+      final Backend backend = new Backend(new String[] { dataSet.toString() });
+      System.clearProperty(Backend.INDEX_PROPERTY);
+      measure(new Benchmark("query." + index + ".teamAndStats") {
+        @Override
+        long run() {
+          for (int i = 0; i < QUERY_REPEATS; i++) {
+            counted += backend.query(teamAndStats).size();
+          }
+          return QUERY_REPEATS;
+        }
+      }, size, out);
+      measure(new Benchmark("scan." + index + ".teamAndStats") {
+        @Override
+        long run() {
+          long found = 0;
+          for (int i = 0; i < QUERY_REPEATS; i++) {
+            for (Player p : backend.listPlayers(0, Integer.MAX_VALUE)) {
+              if (teamAndStats.matches(p))
+                found++;
+            }
+          }
+          counted += found;
+          return QUERY_REPEATS;
+        }
+      }, size, out);
+      measure(new Benchmark("query." + index + ".prefix") {
+        @Override
+        long run() {
+          for (int i = 0; i < QUERY_REPEATS; i++) {
+            counted += backend.query(prefix).size();
+          }
+          return QUERY_REPEATS;
+        }
+      }, size, out);
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  /**
+   * Measures the aggregation of all three stats over the given number of rows for every pool size.
+   * The rows are generated directly as leaderboards, since the names do not matter here and
+   * generating that many distinct names would take most of the heap.
+   */
+  private static void aggregateBenchmark(int rows, String file) throws IOException, DataFormatException {
+    Random random = new Random(SEED);
+    List<Player> players = new ArrayList<Player>(rows);
+    Set<String> teamKeys = new HashSet<String>();
+    for (int i = 0; i < rows; i++) {
+      String team = "Team" + random.nextInt(TEAMS);
+      teamKeys.add(team.toLowerCase());
+      players.add(new Player(Integer.toString(i), "Player " + i, team, random.nextInt(400) / 10.0,
+          random.nextInt(200) / 10.0, random.nextInt(150) / 10.0));
+    }
+    final Map<Stat, StatAggregates.Source> leaderboards = new EnumMap<Stat, StatAggregates.Source>(Stat.class);
+    for (Stat stat : Stat.values()) {
+      leaderboards.put(stat, StatAggregates.Source.of(PersistentRedBlackTree.buildFrom(players, stat.order)));
+    }
+    players = null;
+    final Set<String> teams = teamKeys;
+
+    PrintStream out = output(file);
+    int cores = Runtime.getRuntime().availableProcessors();
+    List<Integer> parallelisms = new ArrayList<Integer>();
+    for (int parallelism = 1; parallelism < cores; parallelism *= 2) {
+      parallelisms.add(parallelism);
+    }
+    parallelisms.add(cores);
+    for (int parallelism : parallelisms) {
+      final ForkJoinPool pool = new ForkJoinPool(parallelism);
+      measure(new Benchmark("aggregate.p" + parallelism) {
+        @Override
+        long run() {
+          for (Stat stat : Stat.values()) {
+            sink += StatAggregates.compute(stat, leaderboards.get(stat), teams, pool).all().count();
+          }
+          return 1;
+        }
+      }, rows, out);
+      pool.shutdown();
+    }
+    if (out != System.out)
+      out.close();
+  }
+
+  private static double mean(double[] values) {
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum / values.length;
+  }
+
+  private static double stddev(double[] values) {
+    double mean = mean(values);
+    double sum = 0;
+    for (double value : values) {
+      sum += (value - mean) * (value - mean);
+    }
+    return Math.sqrt(sum / values.length);
+  }
+
+  /**
+   * Generates n players with distinct names from the given seed. The names are made of random
+   * syllables, the players are spread over 30 teams and every player has all three stats.
+   */
+  static List<Player> players(int n, long seed) {
+    Random random = new Random(seed);
+    Set<String> names = new HashSet<String>();
+    List<Player> players = new ArrayList<Player>(n);
+    while (players.size() < n) {
+      String name = word(random) + " " + word(random);
+      if (!names.add(name.toLowerCase()))
+        continue;
+      players.add(new Player(Integer.toString(players.size() + 1), name, "Team" + random.nextInt(TEAMS),
+          random.nextInt(400) / 10.0, random.nextInt(200) / 10.0, random.nextInt(150) / 10.0));
+    }
+    return players;
+  }
+
+  private static String word(Random random) {
+    StringBuilder sb = new StringBuilder();
+    int syllables = 2 + random.nextInt(3);
+    for (int i = 0; i < syllables; i++) {
+      sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+    }
+    sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+    return sb.toString();
+  }
+
+  /**
+   * Writes players in the data set format that Backend reads.
+   */
+  static void writeDataSet(List<Player> players, Path file) throws IOException {
+    BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    try {
+      writer.write("ID,Name,Team,PPG,RPG,APG\n");
+      for (Player p : players) {
+        writer.write(p.getID() + "," + p.getPlayerName() + "," + p.getTeam() + "," + p.getPPG() + "," + p.getRPG()
+            + "," + p.getAPG() + "\n");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static List<Benchmark> benchmarks(int size) throws IOException, FileNotFoundException, DataFormatException {
+    final List<Player> players = players(size, SEED);
+    final List<Player> shuffled = new ArrayList<Player>(players);
+    Collections.shuffle(shuffled, new Random(SEED + 1));
+    final List<Player> lookups = shuffled.subList(0, Math.min(size, MAX_LOOKUPS));
+    final List<Player> scanLookups = shuffled.subList(0, Math.min(size, SCAN_LOOKUPS));
+    final String[] prefixes = new String[Math.min(size, PREFIX_LOOKUPS)];
+    for (int i = 0; i < prefixes.length; i++) {
+      String name = lookups.get(i).playerName.toLowerCase();
+      prefixes[i] = name.substring(0, Math.min(name.length(), PREFIX_LENGTH));
+    }
+    final Random random = new Random(SEED + 2);
+    final String[] teams = new String[TEAM_LOOKUPS];
+    for (int i = 0; i < teams.length; i++) {
+      teams[i] = "team" + random.nextInt(TEAMS);
+    }
+    final RedBlackTree<Player> tree = RedBlackTree.buildFrom(players, Backend.NAME_ORDER);
+    final Path dataSet = Files.createTempFile("players", ".csv");
+    dataSet.toFile().deleteOnExit();
+    writeDataSet(players, dataSet);
+    final Backend backend = new Backend(new String[] { dataSet.toString() });
+
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.add(new Benchmark("tree.insert") {
+      @Override
+      long run() {
+        RedBlackTree<Player> target = new RedBlackTree<Player>(Backend.NAME_ORDER);
+        for (Player p : shuffled) {
+          target.insert(p);
+        }
+        sink += target.size();
+        return shuffled.size();
+      }
+    });
+    benchmarks.add(new Benchmark("tree.contains") {
+      @Override
+      long run() {
+        long found = 0;
+        for (Player p : lookups) {
+          if (tree.contains(p))
+            found++;
+        }
+        sink += found;
+        return lookups.size();
+      }
+    });
+    benchmarks.add(new Benchmark("tree.iterate") {
+      @Override
+      long run() {
+        long length = 0;
+        for (Player p : tree) {
+          length += p.playerName.length();
+        }
+        sink += length;
+        return tree.size();
+      }
+    });
+    benchmarks.add(new Benchmark("backend.searchByName") {
+      @Override
+      long run() {
+        long found = 0;
+        for (Player p : lookups) {
+          if (backend.searchByName(p.playerName) != null)
+            found++;
+        }
+        sink += found;
+        return lookups.size();
+      }
+    });
+    benchmarks.add(new Benchmark("scan.searchByName") {
+      @Override
+      long run() {
+        long found = 0;
+        for (Player target : scanLookups) {
+          String name = target.playerName.toLowerCase();
+          for (Player p : tree) {
+            if (p.playerName.toLowerCase().equals(name)) {
+              found++;
+              break;
+            }
+          }
+        }
+        sink += found;
+        return scanLookups.size();
+      }
+    });
+    benchmarks.add(new Benchmark("backend.searchByPrefix") {
+      @Override
+      long run() {
+        long found = 0;
+        for (String prefix : prefixes) {
+          found += backend.searchByPrefix(prefix, PREFIX_LIMIT).size();
+        }
+        sink += found;
+        return prefixes.length;
+      }
+    });
+    benchmarks.add(new Benchmark("scan.searchByPrefix") {
+      @Override
+      long run() {
+        int lookups = Math.min(prefixes.length, SCAN_LOOKUPS);
+        long found = 0;
+        for (int i = 0; i < lookups; i++) {
+          List<Player> results = new ArrayList<Player>();
+          for (Player p : tree) {
+            if (p.playerName.toLowerCase().startsWith(prefixes[i])) {
+              results.add(p);
+              if (results.size() == PREFIX_LIMIT)
+                break;
+            }
+          }
+          found += results.size();
+        }
+        sink += found;
+        return lookups;
+      }
+    });
+    benchmarks.add(new Benchmark("backend.searchByTeam") {
+      @Override
+      long run() {
+        long found = 0;
+        for (String team : teams) {
+          found += backend.searchByTeam(team).size();
+        }
+        sink += found;
+        return teams.length;
+      }
+    });
+    final KdTree statVectors = KdTree.buildFrom(players);
+    final List<Player> targets = shuffled.subList(0, Math.min(size, SIMILAR_LOOKUPS));
+    benchmarks.add(new Benchmark("backend.similarPlayers") {
+      @Override
+      long run() {
+        long found = 0;
+        for (Player p : targets) {
+          found += backend.similarPlayers(p, SIMILAR_K).size();
+        }
+        sink += found;
+        return targets.size();
+      }
+    });
+    benchmarks.add(new Benchmark("scan.similarPlayers") {
+      @Override
+      long run() {
+        long found = 0;
+        for (Player p : targets) {
+          found += statVectors.nearestByScan(p, SIMILAR_K, p.getID()).size();
+        }
+        sink += found;
+        return targets.size();
+      }
+    });
+    benchmarks.add(new Benchmark("backend.load") {
+      @Override
+      long run() throws Exception {
+        sink += new Backend(new String[] { dataSet.toString() }).getTotalPlayers();
+        return 1;
+      }
+    });
+    return benchmarks;
+  }
+
+  /**
+   * The recursive insert and contains that RedBlackTree had before they became loops, kept as the
+   * baseline of the insert benchmark. Like the old code, it finds the side of a node by comparing
+   * values, and its fix-up recolors without making the grandparent red, so it does not always keep
+   * the tree balanced.
+   */
+  private static final class RecursiveTree<T> {
+
+    private static final class Node<T> {
+      final T data;
+      boolean isBlack;
+      Node<T> parent;
+      Node<T> leftChild;
+      Node<T> rightChild;
+
+      Node(T data) {
+        this.data = data;
+      }
+
+      boolean isLeftChild() {
+        return parent != null && parent.leftChild == this;
+      }
+    }
+
+    private final Comparator<? super T> comparator;
+    private Node<T> root;
+    private int size;
+
+    RecursiveTree(Comparator<? super T> comparator) {
+      this.comparator = comparator;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void insert(T data) {
+      Node<T> newNode = new Node<T>(data);
+      if (root != null && !insertHelper(newNode, root))
+        throw new IllegalArgumentException("This tree already contains that value.");
+      if (root == null)
+        root = newNode;
+      size++;
+      root.isBlack = true;
+    }
+
+    private boolean insertHelper(Node<T> newNode, Node<T> subtree) {
+      int compare = comparator.compare(newNode.data, subtree.data);
+      if (compare == 0)
+        return false;
+      if (compare < 0 && subtree.leftChild != null)
+        return insertHelper(newNode, subtree.leftChild);
+      if (compare > 0 && subtree.rightChild != null)
+        return insertHelper(newNode, subtree.rightChild);
+      if (compare < 0)
+        subtree.leftChild = newNode;
+      else
+        subtree.rightChild = newNode;
+      newNode.parent = subtree;
+      if (!subtree.isBlack)
+        enforceRBTreePropertiesAfterInsert(newNode);
+      return true;
+    }
+
+    private void rotate(Node<T> child, Node<T> parent) {
+      boolean left = child.isLeftChild();
+      Node<T> moved = left ? child.rightChild : child.leftChild;
+      if (left) {
+        child.rightChild = parent;
+        parent.leftChild = moved;
+      } else {
+        child.leftChild = parent;
+        parent.rightChild = moved;
+      }
+      child.parent = parent.parent;
+      if (root == parent)
+        root = child;
+      else if (comparator.compare(child.data, parent.parent.data) < 0)
+        parent.parent.leftChild = child;
+      else
+        parent.parent.rightChild = child;
+      parent.parent = child;
+      if (moved != null)
+        moved.parent = parent;
+    }
+
+    private void enforceRBTreePropertiesAfterInsert(Node<T> newNode) {
+      if (newNode.parent == root)
+        return;
+      int compare = comparator.compare(newNode.parent.data, newNode.parent.parent.data);
+      Node<T> parentSibling = compare < 0 ? newNode.parent.parent.rightChild : newNode.parent.parent.leftChild;
+      if (parentSibling != null && !(!newNode.parent.isBlack && parentSibling.isBlack)) {
+        newNode.parent.isBlack = !newNode.parent.isBlack;
+        parentSibling.isBlack = !parentSibling.isBlack;
+        enforceRBTreePropertiesAfterInsert(newNode.parent);
+      } else if (comparator.compare(newNode.data, newNode.parent.data) != compare) {
+        rotate(newNode, newNode.parent);
+        newNode.isBlack = !newNode.isBlack;
+        newNode.parent.isBlack = !newNode.parent.isBlack;
+        rotate(newNode, newNode.parent);
+      } else {
+        newNode.parent.isBlack = !newNode.parent.isBlack;
+        newNode.parent.parent.isBlack = !newNode.parent.parent.isBlack;
+        rotate(newNode.parent, newNode.parent.parent);
+      }
+    }
+
+    boolean contains(T data) {
+      return containsHelper(data, root);
+    }
+
+    private boolean containsHelper(T data, Node<T> subtree) {
+      if (subtree == null)
+        return false;
+      int compare = comparator.compare(data, subtree.data);
+      if (compare < 0)
+        return containsHelper(data, subtree.leftChild);
+      if (compare > 0)
+        return containsHelper(data, subtree.rightChild);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,813 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Randomized checks of the search structures against simple reference implementations, such as
+ * java.util.TreeSet or a linear scan. Every check draws its inputs from a fixed seed, so a failure
+ * can be reproduced by running the same check again.
+ *
+ * Usage: java PlayerChecks [check ...], which runs the named checks, or all of them when none is
+ * named. Each check prints one line with its result, and the exit status is 1 when any check
+ * failed.
+ */
+public class PlayerChecks {
+
+  private static final long SEED = 42;
+  private static final int ROUNDS = 200;
+  private static final int MAX_VALUES = 2000;
+  // more players than one chunk of StatAggregates
+  private static final int AGGREGATE_PLAYERS = 150000;
+  private static final int QUERY_PLAYERS = 5000;
+
+  /**
+   * One named check.
+   */
+  private abstract static class Check {
+    final String name;
+
+    Check(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @throws AssertionError when the structure under test disagrees with the reference
+     */
+    abstract void run(Random random) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Set<String> names = new HashSet<String>(Arrays.asList(args));
+    boolean failed = false;
+    for (Check check : checks()) {
+      if (args.length > 0 && !names.remove(check.name))
+        continue;
+      try {
+        check.run(new Random(SEED));
+        System.out.println(check.name + ": ok");
+      } catch (AssertionError e) {
+        System.out.println(check.name + ": FAILED: " + e.getMessage());
+        failed = true;
+      }
+    }
+    for (String name : names) {
+      System.out.println(name + ": unknown check");
+      failed = true;
+    }
+    if (failed)
+      System.exit(1);
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition)
+      throw new AssertionError(message);
+  }
+
+  private static List<Check> checks() {
+    List<Check> checks = new ArrayList<Check>();
+    checks.add(new Check("tree") {
+      /**
+       * Inserts random values, some of them twice, into empty and bulk-loaded trees.
+       */
+      @Override
+      void run(Random random) {
+        for (int round = 0; round < ROUNDS; round++) {
+          int bound = 1 + random.nextInt(MAX_VALUES);
+          TreeSet<Integer> expected = new TreeSet<Integer>();
+          if (round % 2 == 1) {
+            for (int i = random.nextInt(bound); i > 0; i--) {
+              expected.add(random.nextInt(bound));
+            }
+          }
+          RedBlackTree<Integer> tree = RedBlackTree.buildFrom(expected);
+          checkTree(tree, expected);
+          for (int i = random.nextInt(bound); i > 0; i--) {
+            Integer value = random.nextInt(bound);
+            boolean inserted;
+            try {
+              inserted = tree.insert(value);
+            } catch (IllegalArgumentException e) {
+              inserted = false;
+            }
+            check(inserted == expected.add(value), "insert(" + value + ") returned " + inserted);
+          }
+          checkTree(tree, expected);
+          for (int i = 0; i < bound; i++) {
+            check(tree.contains(i) == expected.contains(i), "contains(" + i + ") disagrees with TreeSet");
+          }
+        }
+      }
+    });
+    checks.add(new Check("remove") {
+      /**
+       * Mixes inserts and removes of random values, and in every other round removes all values
+       * at the end, so trees of every shape are taken apart.
+       */
+      @Override
+      void run(Random random) {
+        for (int round = 0; round < ROUNDS; round++) {
+          int bound = 1 + random.nextInt(MAX_VALUES);
+          TreeSet<Integer> expected = new TreeSet<Integer>();
+          for (int i = random.nextInt(bound); i > 0; i--) {
+            expected.add(random.nextInt(bound));
+          }
+          RedBlackTree<Integer> tree = RedBlackTree.buildFrom(expected);
+          for (int i = 2 * bound; i > 0; i--) {
+            Integer value = random.nextInt(bound);
+            if (random.nextInt(5) < 2) {
+              boolean removed = tree.remove(value);
+              check(removed == expected.remove(value), "remove(" + value + ") returned " + removed);
+            } else if (!expected.contains(value)) {
+              tree.insert(value);
+              expected.add(value);
+            }
+          }
+          if (round % 2 == 1) {
+            for (Integer value : new ArrayList<Integer>(expected)) {
+              check(tree.remove(value), "remove(" + value + ") did not find the value");
+              expected.remove(value);
+            }
+          }
+          checkTree(tree, expected);
+          int index = 0;
+          for (Integer value : expected) {
+            check(tree.select(index).equals(value), "select(" + index + ") returned " + tree.select(index));
+            index++;
+          }
+          for (int i = 0; i <= bound; i++) {
+            check(tree.rank(i) == expected.headSet(i).size(), "rank(" + i + ") returned " + tree.rank(i));
+          }
+        }
+      }
+    });
+    checks.add(new Check("persistent") {
+      /**
+       * Mixes inserts and removes on a PersistentRedBlackTree, keeping a few older versions with
+       * a copy of their contents to confirm that later writes leave them unchanged.
+       */
+      @Override
+      void run(Random random) {
+        for (int round = 0; round < ROUNDS; round++) {
+          int bound = 1 + random.nextInt(MAX_VALUES);
+          TreeSet<Integer> expected = new TreeSet<Integer>();
+          if (round % 2 == 1) {
+            for (int i = random.nextInt(bound); i > 0; i--) {
+              expected.add(random.nextInt(bound));
+            }
+          }
+          PersistentRedBlackTree<Integer> tree = PersistentRedBlackTree.buildFrom(expected, null);
+          List<PersistentRedBlackTree<Integer>> versions = new ArrayList<PersistentRedBlackTree<Integer>>();
+          List<TreeSet<Integer>> contents = new ArrayList<TreeSet<Integer>>();
+          for (int i = 2 * bound; i > 0; i--) {
+            Integer value = random.nextInt(bound);
+            if (random.nextBoolean()) {
+              tree = tree.remove(value);
+              expected.remove(value);
+            } else if (!expected.contains(value)) {
+              tree = tree.insert(value);
+              expected.add(value);
+            }
+            if (random.nextInt(bound) < 4) {
+              versions.add(tree);
+              contents.add(new TreeSet<Integer>(expected));
+            }
+          }
+          checkPersistentTree(tree, expected);
+          for (int i = 0; i < versions.size(); i++) {
+            checkPersistentTree(versions.get(i), contents.get(i));
+          }
+        }
+      }
+    });
+    checks.add(new Check("fuzzy") {
+      /**
+       * Compares BK-tree searches with the full Levenshtein distance to every key. The keys are
+       * short strings over a small alphabet, so that most queries have many close keys. Every
+       * other round builds the tree by inserts instead of by buildFrom.
+       */
+      @Override
+      void run(Random random) {
+        int[][] buffer = new int[1][];
+        for (int round = 0; round < ROUNDS; round++) {
+          List<String> keys = new ArrayList<String>();
+          for (int i = random.nextInt(300); i > 0; i--) {
+            keys.add(randomString(random));
+          }
+          BKTree tree = new BKTree();
+          if (round % 2 == 0) {
+            tree = BKTree.buildFrom(keys);
+          } else {
+            for (String key : keys) {
+              tree = tree.insert(key);
+            }
+          }
+          TreeSet<String> distinct = new TreeSet<String>(keys);
+          check(tree.size() == distinct.size(), "size " + tree.size() + ", expected " + distinct.size());
+          for (int i = 0; i < 20; i++) {
+            String query = randomString(random);
+            int maxEdits = random.nextInt(5);
+            List<String> expected = new ArrayList<String>();
+            for (int distance = 0; distance <= maxEdits; distance++) {
+              for (String key : distinct) {
+                if (levenshtein(query, key) == distance)
+                  expected.add(distance + " " + key);
+              }
+            }
+            List<String> found = new ArrayList<String>();
+            for (BKTree.Match match : tree.search(query, maxEdits)) {
+              found.add(match.distance + " " + match.key);
+            }
+            check(found.equals(expected), "search(" + query + ", " + maxEdits + ") returned " + found
+                + ", expected " + expected);
+            String key = randomString(random);
+            int limit = random.nextInt(6);
+            int distance = levenshtein(query, key);
+            int bounded = BKTree.distance(query, key, limit, buffer);
+            check(distance <= limit ? bounded == distance : bounded > limit,
+                "distance(" + query + ", " + key + ", " + limit + ") returned " + bounded);
+          }
+        }
+      }
+    });
+    checks.add(new Check("store") {
+      /**
+       * Adds random rows with few IDs and seasons, some without an ID, to a PlayerStore and
+       * compares removeReplacedRows with Backend.groupById, which keeps the last row of every ID
+       * and season. The views of the rows must show the same values as toPlayer and order like
+       * Player.compareTo. The names only tell the lengths of the IDs apart, so that the seasons of
+       * one player and players with the same name are ordered by the view as well.
+       */
+      @Override
+      void run(Random random) {
+        for (int round = 0; round < ROUNDS; round++) {
+          int bound = 1 + random.nextInt(MAX_VALUES);
+          List<Player> players = new ArrayList<Player>();
+          final PlayerStore store = new PlayerStore();
+          for (int i = random.nextInt(bound); i > 0; i--) {
+            String id = random.nextInt(10) == 0 ? null : Integer.toString(random.nextInt(bound));
+            String name = (random.nextBoolean() ? "Player " : "player ") + (id == null ? 0 : id.length());
+            Player p = new Player(id, name, random.nextInt(5) == 0 ? null : "Team"
+                + random.nextInt(5), random.nextInt(3), random.nextInt(8) == 0 ? null : (double) random.nextInt(40),
+                (double) random.nextInt(20), (double) random.nextInt(15));
+            players.add(p);
+            store.add(p);
+          }
+          store.removeReplacedRows();
+          List<Player> expected = Backend.rows(Backend.groupById(players));
+          Collections.sort(expected, Backend.ID_ORDER);
+          List<Player> found = new ArrayList<Player>();
+          for (int row = 0; row < store.size(); row++) {
+            found.add(store.toPlayer(row));
+          }
+          Collections.sort(found, Backend.ID_ORDER);
+          check(found.size() == expected.size(), "removeReplacedRows kept " + found.size() + " rows, expected "
+              + expected.size());
+          for (int i = 0; i < found.size(); i++) {
+            check(found.get(i).toString().equals(expected.get(i).toString()), "removeReplacedRows kept " + found.get(i)
+                + ", expected " + expected.get(i));
+          }
+          for (int row = 0; row < store.size(); row++) {
+            PlayerStore.Row view = store.view(row);
+            check(view.getID() == store.getID(row) && view.getTeam() == store.getTeam(row)
+                && Double.compare(view.getPPGAsDouble(), store.get(Stat.PPG, row)) == 0,
+                "the view of row " + row + " differs from the row");
+          }
+          Integer[] byView = store.rowNumbers();
+          Arrays.sort(byView, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+              return store.view(a).compareTo(store.view(b));
+            }
+          });
+          Integer[] byPlayer = store.rowNumbers();
+          Arrays.sort(byPlayer, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+              return store.toPlayer(a).compareTo(store.toPlayer(b));
+            }
+          });
+          check(Arrays.equals(byView, byPlayer), "the views order differently from Player.compareTo");
+        }
+      }
+    });
+    checks.add(new Check("aggregate") {
+      /**
+       * Compares Backend.aggregate on the heap and the mapped index with sums, percentiles and
+       * histograms computed from an unsorted list of every player's value. The larger data set
+       * spans several chunks. Pools of 1 and 4 threads must give bit-identical results, and an
+       * upsert must lead to new aggregates, also of players without an ID and of a snapshot of
+       * them.
+       */
+      @Override
+      void run(Random random) throws Exception {
+        for (int size : new int[] { 1, 1000, AGGREGATE_PLAYERS }) {
+          List<Player> players = PlayerBenchmark.players(size, random.nextLong());
+          Path dataSet = Files.createTempFile("players", ".csv");
+          try {
+            PlayerBenchmark.writeDataSet(players, dataSet);
+            for (String index : new String[] { "heap", Backend.MAPPED_INDEX }) {
+              if (index.equals(Backend.MAPPED_INDEX))
+                System.setProperty(Backend.INDEX_PROPERTY, index);
+              Backend backend = new Backend(new String[] { dataSet.toString() });
+              System.clearProperty(Backend.INDEX_PROPERTY);
+              for (Stat stat : Stat.values()) {
+                checkAggregates(backend.aggregate(stat), players, stat, index);
+                check(backend.aggregate(stat) == backend.aggregate(stat), "the aggregates are not cached");
+              }
+            }
+          } finally {
+            Files.deleteIfExists(dataSet);
+            Files.deleteIfExists(Paths.get(dataSet + ".idx"));
+          }
+          Set<String> teams = new HashSet<String>();
+          for (Player p : players) {
+            teams.add(p.teamKey);
+          }
+          for (Stat stat : Stat.values()) {
+            StatAggregates.Source leaderboard = StatAggregates.Source
+                .of(PersistentRedBlackTree.buildFrom(players, stat.order));
+            ForkJoinPool single = new ForkJoinPool(1);
+            ForkJoinPool four = new ForkJoinPool(4);
+            StatAggregates expected = StatAggregates.compute(stat, leaderboard, teams, single);
+            StatAggregates actual = StatAggregates.compute(stat, leaderboard, teams, four);
+            single.shutdown();
+            four.shutdown();
+            for (String team : teams) {
+              check(actual.team(team).sum() == expected.team(team).sum()
+                  && actual.team(team).stddev() == expected.team(team).stddev(),
+                  stat + " of " + team + " differs between 1 and 4 threads");
+            }
+            check(actual.all().sum() == expected.all().sum() && actual.all().stddev() == expected.all().stddev(),
+                stat + " differs between 1 and 4 threads");
+          }
+        }
+        List<Player> players = PlayerBenchmark.players(100, random.nextLong());
+        Path dataSet = Files.createTempFile("players", ".csv");
+        Path snapshot = Files.createTempFile("players", ".snapshot");
+        try {
+          PlayerBenchmark.writeDataSet(players, dataSet);
+          Backend backend = new Backend(new String[] { dataSet.toString() });
+          StatAggregates before = backend.aggregate(Stat.PPG);
+          Player added = new Player("new", "New Player", players.get(0).teamName, 500.0, 1.0, 1.0);
+          backend.upsert(added);
+          players.add(added);
+          checkAggregates(backend.aggregate(Stat.PPG), players, Stat.PPG, "upsert");
+          check(backend.aggregate(Stat.PPG) != before, "the aggregates were not recomputed after an upsert");
+          // players without an ID and with the same stats are told apart by their season, and
+          // can only come from an index file since upsert needs an ID
+          for (int season = 2000; season < 2002; season++) {
+            players.add(new Player(null, "No Id", players.get(0).teamName, season, 7.0, 7.0, 7.0));
+          }
+          MappedPlayerIndex.write(players, snapshot);
+          Backend loaded = Backend.loadSnapshot(snapshot);
+          for (Stat stat : Stat.values()) {
+            checkAggregates(loaded.aggregate(stat), players, stat, "snapshot without an ID");
+          }
+          Player last = new Player("last", "Last Player", players.get(0).teamName, 7.0, 7.0, 7.0);
+          loaded.upsert(last);
+          players.add(last);
+          for (Stat stat : Stat.values()) {
+            checkAggregates(loaded.aggregate(stat), players, stat, "upsert into a snapshot without an ID");
+          }
+        } finally {
+          Files.deleteIfExists(dataSet);
+          Files.deleteIfExists(snapshot);
+        }
+      }
+    });
+    checks.add(new Check("query") {
+      /**
+       * Runs random nested queries through Backend.query on the heap and the mapped index and
+       * compares them with filtering every player by PlayerQuery.matches, in name order. A few
+       * players of the data set are seasons of one player, so that a name has several players.
+       */
+      @Override
+      void run(Random random) throws Exception {
+        List<Player> players = PlayerBenchmark.players(QUERY_PLAYERS, random.nextLong());
+        for (int i = 0; i < 50; i++) {
+          Player p = players.get(random.nextInt(players.size()));
+          players.add(new Player(p.getID(), p.playerName, "Team" + random.nextInt(30), 2000 + i,
+              random.nextInt(400) / 10.0, random.nextInt(200) / 10.0, random.nextInt(150) / 10.0));
+        }
+        Path dataSet = Files.createTempFile("players", ".csv");
+        try {
+          PlayerBenchmark.writeDataSet(players, dataSet);
+          for (String index : new String[] { "heap", Backend.MAPPED_INDEX }) {
+            if (index.equals(Backend.MAPPED_INDEX))
+              System.setProperty(Backend.INDEX_PROPERTY, index);
+            Backend backend = new Backend(new String[] { dataSet.toString() });
+            System.clearProperty(Backend.INDEX_PROPERTY);
+            List<Player> all = backend.listPlayers(0, Integer.MAX_VALUE);
+            for (int i = 0; i < 300; i++) {
+              PlayerQuery query = randomQuery(random, all, 0);
+              List<String> expected = new ArrayList<String>();
+              for (Player p : all) {
+                if (query.matches(p))
+                  expected.add(p.getID() + "/" + p.getSeason());
+              }
+              List<String> found = new ArrayList<String>();
+              for (Player p : backend.query(query)) {
+                found.add(p.getID() + "/" + p.getSeason());
+              }
+              check(found.equals(expected), index + ": " + query + " returned " + found.size() + " players, expected "
+                  + expected.size());
+            }
+          }
+        } finally {
+          Files.deleteIfExists(dataSet);
+          Files.deleteIfExists(Paths.get(dataSet + ".idx"));
+        }
+      }
+    });
+    checks.add(new Check("similar") {
+      /**
+       * Mixes with and without on k-d trees over players with coarse stats, so that many players
+       * are equally close, and compares nearest and nearestByScan with sorting every player by its
+       * distance. Some players lack a stat, several seasons share an ID, and in every third round
+       * all players have the same RPG. k runs past the size of the tree.
+       */
+      @Override
+      void run(Random random) {
+        for (int round = 0; round < ROUNDS; round++) {
+          int bound = 1 + random.nextInt(MAX_VALUES);
+          List<Player> live = new ArrayList<Player>();
+          for (int i = random.nextInt(bound); i > 0; i--) {
+            live.add(randomPlayer(random, bound, live.size(), round % 3 == 2));
+          }
+          KdTree tree = KdTree.buildFrom(live);
+          for (int i = random.nextInt(bound); i > 0; i--) {
+            KdTree next;
+            if (live.isEmpty() || random.nextBoolean()) {
+              Player p = randomPlayer(random, bound, bound + i, round % 3 == 2);
+              live.add(p);
+              next = tree.with(p);
+            } else {
+              next = tree.without(live.remove(random.nextInt(live.size())));
+            }
+            tree = next != null ? next : KdTree.buildFrom(live);
+          }
+          List<Player> complete = new ArrayList<Player>();
+          for (Player p : live) {
+            if (!Double.isNaN(p.PPG) && !Double.isNaN(p.RPG) && !Double.isNaN(p.APG))
+              complete.add(p);
+          }
+          check(tree.size() == complete.size(), "size() returned " + tree.size() + ", expected " + complete.size());
+          for (int i = 0; i < 20; i++) {
+            Player target = !live.isEmpty() && random.nextBoolean() ? live.get(random.nextInt(live.size()))
+                : randomPlayer(random, bound, -1, round % 3 == 2);
+            int k = random.nextInt(10) == 0 ? Integer.MAX_VALUE : random.nextInt(tree.size() + 3);
+            String excludedId = random.nextBoolean() ? target.getID() : null;
+            List<Player> found = tree.nearest(target, k, excludedId);
+            check(found.equals(tree.nearestByScan(target, k, excludedId)), "nearest(" + target + ", " + k
+                + ") differs from nearestByScan");
+            // the tree compares squared distances, so players whose distances round to the same
+            // square root may come in either order
+            List<Player> expected = nearestByDistance(tree, complete, target, k, excludedId);
+            check(found.size() == expected.size(), "nearest(" + target + ", " + k + ") returned " + found.size()
+                + " players, expected " + expected.size());
+            for (int j = 0; j < found.size(); j++) {
+              checkClose(tree.distance(target, found.get(j)), tree.distance(target, expected.get(j)), "distance of "
+                  + "nearest player " + j + " to " + target);
+            }
+          }
+        }
+      }
+    });
+    checks.add(new Check("similarPlayers") {
+      /**
+       * Compares Backend.similarPlayers on the heap and the mapped index with the distances of a
+       * scan over every player, and then checks that after upserts and removes the heap index only
+       * returns players that are still indexed and never the target itself.
+       */
+      @Override
+      void run(Random random) throws Exception {
+        Path dataSet = Files.createTempFile("players", ".csv");
+        try {
+          PlayerBenchmark.writeDataSet(PlayerBenchmark.players(QUERY_PLAYERS, random.nextLong()), dataSet);
+          for (String index : new String[] { "heap", Backend.MAPPED_INDEX }) {
+            if (index.equals(Backend.MAPPED_INDEX))
+              System.setProperty(Backend.INDEX_PROPERTY, index);
+            Backend backend = new Backend(new String[] { dataSet.toString() });
+            System.clearProperty(Backend.INDEX_PROPERTY);
+            List<Player> all = backend.listPlayers(0, Integer.MAX_VALUE);
+            KdTree reference = KdTree.buildFrom(all);
+            for (int i = 0; i < 200; i++) {
+              Player target = all.get(random.nextInt(all.size()));
+              int k = 1 + random.nextInt(50);
+              List<Player> found = backend.similarPlayers(target, k);
+              List<Player> expected = reference.nearestByScan(target, k, target.getID());
+              check(found.size() == expected.size(), index + ": similarPlayers(" + target + ", " + k + ") returned "
+                  + found.size() + " players, expected " + expected.size());
+              for (int j = 0; j < found.size(); j++) {
+                checkClose(reference.distance(target, found.get(j)), reference.distance(target, expected.get(j)), index
+                    + ": distance of similar player " + j + " to " + target);
+              }
+            }
+            if (index.equals(Backend.MAPPED_INDEX))
+              continue;
+            for (int round = 0; round < 20; round++) {
+              for (int i = 0; i < 50; i++) {
+                Player p = all.get(random.nextInt(all.size()));
+                if (random.nextBoolean()) {
+                  backend.remove(p.getID());
+                } else {
+                  backend.upsert(new Player(p.getID(), p.playerName, p.teamName, p.season + random.nextInt(2),
+                      random.nextInt(400) / 10.0, random.nextInt(200) / 10.0, random.nextInt(150) / 10.0));
+                }
+              }
+              List<Player> indexed = backend.listPlayers(0, Integer.MAX_VALUE);
+              Set<String> live = new HashSet<String>();
+              for (Player p : indexed) {
+                live.add(p.getID() + "/" + p.getSeason() + "/" + p.PPG + "/" + p.RPG + "/" + p.APG);
+              }
+              for (int i = 0; i < 20; i++) {
+                Player target = indexed.get(random.nextInt(indexed.size()));
+                int others = 0;
+                for (Player p : indexed) {
+                  if (!p.getID().equals(target.getID()) && !Double.isNaN(p.PPG) && !Double.isNaN(p.RPG)
+                      && !Double.isNaN(p.APG))
+                    others++;
+                }
+                int k = 1 + random.nextInt(50);
+                List<Player> found = backend.similarPlayers(target, k);
+                check(found.size() == Math.min(k, others), "similarPlayers(" + target + ", " + k + ") returned "
+                    + found.size() + " players after writes, expected " + Math.min(k, others));
+                for (Player p : found) {
+                  check(!p.getID().equals(target.getID()), "similarPlayers(" + target + ") returned the player itself");
+                  check(live.contains(p.getID() + "/" + p.getSeason() + "/" + p.PPG + "/" + p.RPG + "/" + p.APG),
+                      "similarPlayers(" + target + ") returned " + p + ", which is no longer indexed");
+                }
+              }
+            }
+          }
+        } finally {
+          Files.deleteIfExists(dataSet);
+          Files.deleteIfExists(Paths.get(dataSet + ".idx"));
+        }
+      }
+    });
+    return checks;
+  }
+
+  /**
+   * @return a player with stats from 0 to 5, one in ten of them missing, and a season that is
+   *         unique within a round
+   */
+  private static Player randomPlayer(Random random, int bound, int season, boolean sameRPG) {
+    Double[] stats = new Double[3];
+    for (int d = 0; d < stats.length; d++) {
+      stats[d] = random.nextInt(10) == 0 ? null : Double.valueOf(random.nextInt(6));
+    }
+    if (sameRPG && stats[1] != null)
+      stats[1] = 1.0;
+    String id = Integer.toString(random.nextInt(bound));
+    return new Player(id, "player " + random.nextInt(bound), "team", season, stats[0], stats[1], stats[2]);
+  }
+
+  /**
+   * @return the k players that are closest to the target by KdTree.distance, skipping the given
+   *         ID; the players must all have all three stats
+   */
+  private static List<Player> nearestByDistance(final KdTree tree, List<Player> players, final Player target, int k,
+      String excludedId) {
+    List<Player> candidates = new ArrayList<Player>();
+    if (Double.isNaN(target.PPG) || Double.isNaN(target.RPG) || Double.isNaN(target.APG))
+      return candidates;
+    for (Player p : players) {
+      if (excludedId == null || !excludedId.equals(p.getID()))
+        candidates.add(p);
+    }
+    Collections.sort(candidates, new Comparator<Player>() {
+      @Override
+      public int compare(Player a, Player b) {
+        int compare = Double.compare(tree.distance(target, a), tree.distance(target, b));
+        return compare != 0 ? compare : Backend.NAME_ORDER.compare(a, b);
+      }
+    });
+    return candidates.subList(0, Math.min(k, candidates.size()));
+  }
+
+  /**
+   * @return a query of team, name prefix and stat range conditions, nested in ands and ors down to
+   *         three levels
+   */
+  private static PlayerQuery randomQuery(Random random, List<Player> players, int depth) {
+    Stat stat = Stat.values()[random.nextInt(Stat.values().length)];
+    double lo = random.nextInt(30);
+    double hi = lo + random.nextInt(15);
+    switch (depth > 2 ? random.nextInt(3) : random.nextInt(6)) {
+    case 0:
+      return PlayerQuery.team(random.nextInt(5) == 0 ? "nobody" : "TEAM" + random.nextInt(30));
+    case 1:
+      String name = players.get(random.nextInt(players.size())).playerName;
+      return PlayerQuery.namePrefix(name.substring(0, random.nextInt(Math.min(name.length(), 6) + 1)));
+    case 2:
+      switch (random.nextInt(5)) {
+      case 0:
+        return PlayerQuery.statBetween(stat, lo, hi);
+      case 1:
+        return PlayerQuery.statAbove(stat, lo);
+      case 2:
+        return PlayerQuery.statBelow(stat, hi);
+      case 3:
+        return PlayerQuery.statAtLeast(stat, lo);
+      default:
+        return PlayerQuery.statAtMost(stat, hi);
+      }
+    default:
+      PlayerQuery[] parts = new PlayerQuery[1 + random.nextInt(3)];
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = randomQuery(random, players, depth + 1);
+      }
+      return random.nextBoolean() ? PlayerQuery.and(parts) : PlayerQuery.or(parts);
+    }
+  }
+
+  /**
+   * Checks the aggregates of every team and of all players against the values of the players.
+   */
+  private static void checkAggregates(StatAggregates aggregates, List<Player> players, Stat stat, String label) {
+    Map<String, List<Double>> byTeam = new TreeMap<String, List<Double>>();
+    List<Double> all = new ArrayList<Double>();
+    for (Player p : players) {
+      double value = stat.get(p);
+      List<Double> values = byTeam.get(p.teamKey);
+      if (values == null) {
+        values = new ArrayList<Double>();
+        byTeam.put(p.teamKey, values);
+      }
+      values.add(value);
+      all.add(value);
+    }
+    checkSummary(aggregates.all(), all, stat + " of all players (" + label + ")");
+    check(aggregates.byTeam().keySet().equals(byTeam.keySet()), "the teams of " + stat + " (" + label + ") differ");
+    for (Map.Entry<String, List<Double>> team : byTeam.entrySet()) {
+      checkSummary(aggregates.team(team.getKey()), team.getValue(), stat + " of " + team.getKey() + " (" + label + ")");
+    }
+  }
+
+  private static void checkSummary(StatAggregates.Summary summary, List<Double> values, String label) {
+    check(summary.count() == values.size(), label + ": count " + summary.count() + ", expected " + values.size());
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    double mean = sum / values.size();
+    double squaredDeviations = 0;
+    for (double value : values) {
+      squaredDeviations += (value - mean) * (value - mean);
+    }
+    checkClose(summary.sum(), sum, label + ": sum");
+    checkClose(summary.mean(), mean, label + ": mean");
+    checkClose(summary.stddev(), Math.sqrt(squaredDeviations / values.size()), label + ": stddev");
+    List<Double> sorted = new ArrayList<Double>(values);
+    Collections.sort(sorted);
+    double min = sorted.get(0);
+    double max = sorted.get(sorted.size() - 1);
+    check(summary.min() == min && summary.max() == max, label + ": min or max");
+    for (double percentile : new double[] { 0, 1, 25, 50, 90, 99, 100 }) {
+      int rank = Math.max(1, (int) Math.ceil(percentile / 100 * sorted.size()));
+      check(summary.percentile(percentile) == sorted.get(rank - 1), label + ": percentile " + percentile);
+    }
+    int bins = 7;
+    int[] histogram = new int[bins];
+    for (double value : values) {
+      int bin = max == min ? 0 : (int) ((value - min) / ((max - min) / bins));
+      histogram[Math.min(bins - 1, bin)]++;
+    }
+    check(Arrays.equals(summary.histogram(bins), histogram), label + ": histogram");
+  }
+
+  private static void checkClose(double actual, double expected, String label) {
+    check(Math.abs(actual - expected) <= 1e-9 * Math.max(1, Math.abs(expected)), label + " " + actual + ", expected "
+        + expected);
+  }
+
+  /**
+   * @return a string of up to 8 characters from a four letter alphabet
+   */
+  private static String randomString(Random random) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = random.nextInt(9); i > 0; i--) {
+      sb.append((char) ('a' + random.nextInt(4)));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the Levenshtein distance of a and b, from the full dynamic programming table
+   */
+  private static int levenshtein(String a, String b) {
+    int[][] table = new int[a.length() + 1][b.length() + 1];
+    for (int i = 0; i <= a.length(); i++) {
+      for (int j = 0; j <= b.length(); j++) {
+        if (i == 0 || j == 0)
+          table[i][j] = i + j;
+        else
+          table[i][j] = Math.min(table[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1),
+              Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+      }
+    }
+    return table[a.length()][b.length()];
+  }
+
+  /**
+   * Checks the red-black properties of a persistent tree and answers its queries from the expected
+   * values.
+   */
+  private static void checkPersistentTree(PersistentRedBlackTree<Integer> tree, TreeSet<Integer> expected) {
+    try {
+      tree.checkInvariants();
+    } catch (IllegalStateException e) {
+      check(false, e.getMessage());
+    }
+    check(tree.size() == expected.size(), "size " + tree.size() + ", expected " + expected.size());
+    List<Integer> values = new ArrayList<Integer>(expected);
+    check(toList(tree.iterator()).equals(values), "iteration disagrees with TreeSet");
+    int bound = expected.isEmpty() ? 1 : expected.last() + 2;
+    for (int i = -1; i <= bound; i++) {
+      check(tree.contains(i) == expected.contains(i), "contains(" + i + ") disagrees with TreeSet");
+      check(tree.rank(i) == expected.headSet(i).size(), "rank(" + i + ") returned " + tree.rank(i));
+    }
+    for (int index = 0; index < values.size(); index++) {
+      check(tree.select(index).equals(values.get(index)), "select(" + index + ") returned " + tree.select(index));
+    }
+    for (int from = -1; from <= bound; from += 7) {
+      Integer to = from + bound / 3;
+      check(toList(tree.rangeIterator(from, to)).equals(new ArrayList<Integer>(expected.subSet(from, to))),
+          "rangeIterator(" + from + ", " + to + ") disagrees with TreeSet");
+    }
+    for (int index = 0; index <= values.size(); index += 5) {
+      check(toList(tree.iteratorFrom(index)).equals(values.subList(index, values.size())),
+          "iteratorFrom(" + index + ") disagrees with TreeSet");
+    }
+  }
+
+  private static List<Integer> toList(Iterator<Integer> values) {
+    List<Integer> list = new ArrayList<Integer>();
+    while (values.hasNext()) {
+      list.add(values.next());
+    }
+    return list;
+  }
+
+  /**
+   * Checks the red-black properties, parent links and subtree sizes of a tree, and that it holds
+   * exactly the expected values in order.
+   */
+  private static void checkTree(RedBlackTree<Integer> tree, TreeSet<Integer> expected) {
+    check(tree.size() == expected.size(), "size " + tree.size() + ", expected " + expected.size());
+    check(tree.root == null || tree.root.isBlack, "the root is red");
+    check(tree.root == null || tree.root.parent == null, "the root has a parent");
+    checkSubtree(tree.root, null, null);
+    Iterator<Integer> values = expected.iterator();
+    for (Integer value : tree) {
+      check(values.hasNext() && values.next().equals(value), "iteration returned " + value + " out of order");
+    }
+    check(!values.hasNext(), "iteration stopped early");
+  }
+
+  /**
+   * @return the number of black nodes on every path from the subtree's root down to a null child
+   */
+  private static int checkSubtree(RedBlackTree.Node<Integer> node, Integer lo, Integer hi) {
+    if (node == null)
+      return 1;
+    check((lo == null || node.data > lo) && (hi == null || node.data < hi), node.data + " is out of order");
+    int size = 1;
+    RedBlackTree.Node<Integer> left = node.leftChild;
+    RedBlackTree.Node<Integer> right = node.rightChild;
+    for (RedBlackTree.Node<Integer> child : children(left, right)) {
+      check(child.parent == node, "the parent link of " + child.data + " is wrong");
+      check(node.isBlack || child.isBlack, "red " + node.data + " has a red child");
+      size += child.subtreeSize;
+    }
+    check(node.subtreeSize == size, "the subtree size at " + node.data + " is wrong");
+    int blackHeight = checkSubtree(left, lo, node.data);
+    check(blackHeight == checkSubtree(right, node.data, hi), "the black heights below " + node.data + " differ");
+    return blackHeight + (node.isBlack ? 1 : 0);
+  }
+
+  private static List<RedBlackTree.Node<Integer>> children(RedBlackTree.Node<Integer> left,
+      RedBlackTree.Node<Integer> right) {
+    List<RedBlackTree.Node<Integer>> children = new ArrayList<RedBlackTree.Node<Integer>>(2);
+    if (left != null)
+      children.add(left);
+    if (right != null)
+      children.add(right);
+    return children;
+  }
+}
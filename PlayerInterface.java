@@ -6,11 +6,19 @@ public interface PlayerInterface {
 
   public String getTeam();
 
+  public int getSeason();
+
   public Double getAPG();
 
   public Double getRPG();
 
   public Double getPPG();
 
+  public double getAPGAsDouble();
+
+  public double getRPGAsDouble();
+
+  public double getPPGAsDouble();
+
   int compareTo(PlayerInterface otherPlayer);
 }
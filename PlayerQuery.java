@@ -0,0 +1,295 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A filter over players, built from team, name prefix and stat range conditions that are combined
+ * with and and or, for example
+ *
+ * <pre>
+ * PlayerQuery.and(PlayerQuery.team("Lakers"), PlayerQuery.statAbove(Stat.PPG, 20),
+ *     PlayerQuery.statBetween(Stat.APG, 5, 10))
+ * </pre>
+ *
+ * Backend.query runs a query against its indexes. Every condition can be read from an index (the
+ * team trees, the name tree or a stat leaderboard), and the number of players it selects there is
+ * known from two rank lookups before anything is read. For an and the planner reads only the
+ * condition with the fewest players and checks the others on those; an or reads the union of
+ * its parts. A query whose parts cannot all be read from indexes falls back to every player.
+ *
+ * Stat conditions never match a player without a value for the stat. Queries are immutable.
+ */
+public abstract class PlayerQuery {
+
+  private PlayerQuery() {
+  }
+
+  /**
+   * @return true when the player satisfies this query
+   */
+  public abstract boolean matches(Player p);
+
+  /**
+   * @return the cheapest way to read the players that can satisfy this query, or null when they
+   *         cannot be read from an index
+   */
+  abstract Plan plan(Access indexes);
+
+  /**
+   * A set of players to read from the indexes, a superset of the players that satisfy the query.
+   */
+  static final class Plan {
+    final long cost; // the number of players that are read
+    final List<Iterable<Player>> parts;
+
+    Plan(long cost, List<Iterable<Player>> parts) {
+      this.cost = cost;
+      this.parts = parts;
+    }
+
+    Plan(long cost, Iterable<Player> players) {
+      this(cost, Collections.singletonList(players));
+    }
+  }
+
+  /**
+   * The indexes of one version of a Backend.
+   */
+  interface Access {
+    /**
+     * @return the players of a team, or null when the team has none
+     */
+    Plan team(String teamKey);
+
+    /**
+     * @return the players in name order between from (inclusive) and to (exclusive)
+     */
+    Plan names(Comparable<Player> from, Comparable<Player> to);
+
+    /**
+     * @return the players of a stat leaderboard between from (inclusive) and to (exclusive)
+     */
+    Plan stat(Stat stat, Comparable<Player> from, Comparable<Player> to);
+  }
+
+  /**
+   * Matches the players of a team, ignoring case.
+   */
+  public static PlayerQuery team(String team) {
+    if (team == null)
+      throw new NullPointerException("This PlayerQuery cannot store null references.");
+    final String teamKey = team.toLowerCase();
+    return new PlayerQuery() {
+      @Override
+      public boolean matches(Player p) {
+        return teamKey.equals(p.teamKey);
+      }
+
+      @Override
+      Plan plan(Access indexes) {
+        Plan plan = indexes.team(teamKey);
+        return plan != null ? plan : new Plan(0, Collections.<Player>emptyList());
+      }
+
+      @Override
+      public String toString() {
+        return "team = " + teamKey;
+      }
+    };
+  }
+
+  /**
+   * Matches the players whose names start with the prefix, ignoring case.
+   */
+  public static PlayerQuery namePrefix(String prefix) {
+    if (prefix == null)
+      throw new NullPointerException("This PlayerQuery cannot store null references.");
+    final String key = prefix.toLowerCase();
+    return new PlayerQuery() {
+      @Override
+      public boolean matches(Player p) {
+        return p.nameKey != null && p.nameKey.startsWith(key);
+      }
+
+      @Override
+      Plan plan(Access indexes) {
+        // the names with the prefix are the range from the prefix to the first greater name that
+        // does not start with it
+        return indexes.names(new Comparable<Player>() {
+          @Override
+          public int compareTo(Player p) {
+            return key.compareTo(p.nameKey);
+          }
+        }, new Comparable<Player>() {
+          @Override
+          public int compareTo(Player p) {
+            return p.nameKey.startsWith(key) || p.nameKey.compareTo(key) < 0 ? 1 : -1;
+          }
+        });
+      }
+
+      @Override
+      public String toString() {
+        return "name starts with " + key;
+      }
+    };
+  }
+
+  /**
+   * Matches the players whose value of the stat lies between lo and hi, both inclusive.
+   */
+  public static PlayerQuery statBetween(final Stat stat, final double lo, final double hi) {
+    if (stat == null)
+      throw new NullPointerException("This PlayerQuery cannot store null references.");
+    return new PlayerQuery() {
+      @Override
+      public boolean matches(Player p) {
+        double value = stat.get(p);
+        return value >= lo && value <= hi;
+      }
+
+      @Override
+      Plan plan(Access indexes) {
+        // the leaderboards are ordered from high to low, see Backend.statRange
+        return indexes.stat(stat, new Comparable<Player>() {
+          @Override
+          public int compareTo(Player p) {
+            return stat.get(p) <= hi ? -1 : 1;
+          }
+        }, new Comparable<Player>() {
+          @Override
+          public int compareTo(Player p) {
+            return stat.get(p) < lo ? -1 : 1;
+          }
+        });
+      }
+
+      @Override
+      public String toString() {
+        return lo + " <= " + stat + " <= " + hi;
+      }
+    };
+  }
+
+  /**
+   * Matches the players whose value of the stat is at least lo.
+   */
+  public static PlayerQuery statAtLeast(Stat stat, double lo) {
+    return statBetween(stat, lo, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Matches the players whose value of the stat is greater than lo.
+   */
+  public static PlayerQuery statAbove(Stat stat, double lo) {
+    return statBetween(stat, Math.nextUp(lo), Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Matches the players whose value of the stat is at most hi.
+   */
+  public static PlayerQuery statAtMost(Stat stat, double hi) {
+    return statBetween(stat, Double.NEGATIVE_INFINITY, hi);
+  }
+
+  /**
+   * Matches the players whose value of the stat is less than hi.
+   */
+  public static PlayerQuery statBelow(Stat stat, double hi) {
+    return statBetween(stat, Double.NEGATIVE_INFINITY, Math.nextDown(hi));
+  }
+
+  /**
+   * Matches the players that satisfy all of the queries.
+   */
+  public static PlayerQuery and(PlayerQuery... queries) {
+    final List<PlayerQuery> parts = parts(queries);
+    return new PlayerQuery() {
+      @Override
+      public boolean matches(Player p) {
+        for (PlayerQuery part : parts) {
+          if (!part.matches(p))
+            return false;
+        }
+        return true;
+      }
+
+      @Override
+      Plan plan(Access indexes) {
+        // any part that can be read selects a superset, so the smallest one is read
+        Plan best = null;
+        for (PlayerQuery part : parts) {
+          Plan plan = part.plan(indexes);
+          if (plan != null && (best == null || plan.cost < best.cost))
+            best = plan;
+        }
+        return best;
+      }
+
+      @Override
+      public String toString() {
+        return join(parts, " and ");
+      }
+    };
+  }
+
+  /**
+   * Matches the players that satisfy at least one of the queries.
+   */
+  public static PlayerQuery or(PlayerQuery... queries) {
+    final List<PlayerQuery> parts = parts(queries);
+    return new PlayerQuery() {
+      @Override
+      public boolean matches(Player p) {
+        for (PlayerQuery part : parts) {
+          if (part.matches(p))
+            return true;
+        }
+        return false;
+      }
+
+      @Override
+      Plan plan(Access indexes) {
+        // the union of the parts, which can only be read when every part can
+        long cost = 0;
+        List<Iterable<Player>> union = new ArrayList<Iterable<Player>>();
+        for (PlayerQuery part : parts) {
+          Plan plan = part.plan(indexes);
+          if (plan == null)
+            return null;
+          cost += plan.cost;
+          union.addAll(plan.parts);
+        }
+        return new Plan(cost, union);
+      }
+
+      @Override
+      public String toString() {
+        return join(parts, " or ");
+      }
+    };
+  }
+
+  private static List<PlayerQuery> parts(PlayerQuery[] queries) {
+    if (queries.length == 0)
+      throw new IllegalArgumentException("A combined query needs at least one part.");
+    for (PlayerQuery query : queries) {
+      if (query == null)
+        throw new NullPointerException("This PlayerQuery cannot store null references.");
+    }
+    return Collections.unmodifiableList(new ArrayList<PlayerQuery>(Arrays.asList(queries)));
+  }
+
+  private static String join(List<PlayerQuery> parts, String separator) {
+    StringBuilder sb = new StringBuilder("(");
+    Iterator<PlayerQuery> iterator = parts.iterator();
+    while (iterator.hasNext()) {
+      sb.append(iterator.next());
+      if (iterator.hasNext())
+        sb.append(separator);
+    }
+    return sb.append(')').toString();
+  }
+}
@@ -0,0 +1,378 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import javax.management.JMException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves Backend searches as JSON over HTTP, using the HTTP server that ships with the JDK. Every
+ * request runs on its own virtual thread when the JDK supports them (21 and later) and on a thread
+ * of a cached pool otherwise. Backend searches never lock, so requests do not wait for each other.
+ *
+ * Routes (all GET):
+ * <ul>
+ * <li>/players/{name} - the player with that name, ignoring case</li>
+ * <li>/teams/{team} - the players of a team in name order</li>
+ * <li>/ids/{id} - every season of the player with that ID, earliest first</li>
+ * <li>/search?prefix=..&amp;limit=.. - players whose names start with the prefix</li>
+ * <li>/top/{PPG|RPG|APG}?n=.. - the n players with the highest value of a stat</li>
+ * <li>/cache - the hit, miss and eviction counters of the result cache</li>
+ * </ul>
+ *
+ * Other methods are answered with 405, and paths that match no route with 404.
+ *
+ * Player and team lookups are answered through a CachingBackend. Its capacity is set with the
+ * system property server.cacheCapacity (10000 results of each kind by default).
+ *
+ * Responses are sent without waiting to fill TCP packets (sun.net.httpserver.nodelay), unless that
+ * system property is set otherwise.
+ *
+ * The metrics of the backend are registered as the JMX MBean nba:type=Backend. With the system
+ * property server.metricsDumpSeconds set they are also printed at that interval.
+ */
+public class PlayerServer {
+
+  private static final int DEFAULT_PORT = 8080;
+  private static final int DEFAULT_LIMIT = 10;
+  private static final int MAX_LIMIT = 1000;
+  public static final String CACHE_CAPACITY_PROPERTY = "server.cacheCapacity";
+  private static final int DEFAULT_CACHE_CAPACITY = 10000;
+  public static final String METRICS_DUMP_PROPERTY = "server.metricsDumpSeconds";
+
+  static {
+    // The JDK server writes the headers and the body of a response separately. With Nagle's
+    // algorithm the body then waits for the client to acknowledge the headers, which a client
+    // using delayed ACKs does only after tens of milliseconds. The server reads the property
+    // once, when the first server is created.
+    if (System.getProperty("sun.net.httpserver.nodelay") == null)
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final Backend backend;
+  private final CachingBackend cache;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a server for the given backend. The server does not accept requests before start is
+   * called.
+   *
+   * @param backend the backend to search
+   * @param port    the port to listen on, 0 picks a free port
+   */
+  public PlayerServer(Backend backend, int port) throws IOException {
+    this.backend = backend;
+    this.cache = new CachingBackend(backend, Integer.getInteger(CACHE_CAPACITY_PROPERTY, DEFAULT_CACHE_CAPACITY));
+    this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+    this.executor = newThreadPerRequestExecutor();
+    server.setExecutor(executor);
+    server.createContext("/players/", new Route(false) {
+      @Override
+      void respond(HttpExchange exchange) throws IOException {
+        Player p = PlayerServer.this.cache.searchByName(pathParameter(exchange, "/players/"));
+        if (p == null)
+          send(exchange, 404, "{\"error\":\"player not found\"}");
+        else
+          send(exchange, 200, toJson(p));
+      }
+    });
+    server.createContext("/teams/", new Route(false) {
+      @Override
+      void respond(HttpExchange exchange) throws IOException {
+        List<Player> team = PlayerServer.this.cache.searchByTeam(pathParameter(exchange, "/teams/"));
+        if (team == null)
+          send(exchange, 404, "{\"error\":\"team not found\"}");
+        else
+          send(exchange, 200, toJson(team));
+      }
+    });
+    server.createContext("/ids/", new Route(false) {
+      @Override
+      void respond(HttpExchange exchange) throws IOException {
+        List<Player> history = PlayerServer.this.backend.getHistory(pathParameter(exchange, "/ids/"));
+        if (history == null)
+          send(exchange, 404, "{\"error\":\"player not found\"}");
+        else
+          send(exchange, 200, toJson(history));
+      }
+    });
+    server.createContext("/search", new Route(true) {
+      @Override
+      void respond(HttpExchange exchange) throws IOException {
+        Map<String, String> query = queryParameters(exchange);
+        String prefix = query.get("prefix");
+        if (prefix == null) {
+          send(exchange, 400, "{\"error\":\"missing prefix\"}");
+          return;
+        }
+        send(exchange, 200, toJson(PlayerServer.this.backend.searchByPrefix(prefix, limit(query.get("limit")))));
+      }
+    });
+    server.createContext("/top/", new Route(false) {
+      @Override
+      void respond(HttpExchange exchange) throws IOException {
+        Stat stat;
+        try {
+          stat = Stat.valueOf(pathParameter(exchange, "/top/").toUpperCase());
+        } catch (IllegalArgumentException e) {
+          send(exchange, 404, "{\"error\":\"unknown stat\"}");
+          return;
+        }
+        int n = limit(queryParameters(exchange).get("n"));
+        send(exchange, 200, toJson(PlayerServer.this.backend.topN(stat, n)));
+      }
+    });
+    server.createContext("/cache", new Route(true) {
+      @Override
+      void respond(HttpExchange exchange) throws IOException {
+        CachingBackend cache = PlayerServer.this.cache;
+        send(exchange, 200,
+            "{\"names\":" + toJson(cache.nameCache()) + ",\"teams\":" + toJson(cache.teamCache()) + "}");
+      }
+    });
+    // every other path, so that it is answered with JSON as well
+    server.createContext("/", new Route(false) {
+      @Override
+      void respond(HttpExchange exchange) throws IOException {
+        send(exchange, 404, "{\"error\":\"not found\"}");
+      }
+    });
+  }
+
+  /**
+   * Starts a server for the data set given as the first argument, on the port given as the second
+   * argument (8080 by default).
+   */
+  public static void main(String[] args)
+      throws FileNotFoundException, IOException, DataFormatException, JMException {
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+    Backend backend = new Backend(args);
+    backend.getMetrics().register("nba:type=Backend");
+    Integer dumpSeconds = Integer.getInteger(METRICS_DUMP_PROPERTY);
+    if (dumpSeconds != null && dumpSeconds > 0)
+      backend.getMetrics().dumpEvery(dumpSeconds, TimeUnit.SECONDS, System.out);
+    PlayerServer server = new PlayerServer(backend, port);
+    server.start();
+    System.out.println("Serving " + server.backend.getTotalPlayers() + " players on port " + server.getPort());
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stops accepting requests, waits up to delaySeconds for running requests and releases the
+   * request threads.
+   */
+  public void stop(int delaySeconds) {
+    server.stop(delaySeconds);
+    executor.shutdown();
+  }
+
+  /**
+   * @return the port the server listens on
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Uses a virtual thread per request when the running JDK has them. The method is looked up
+   * reflectively so that this class still compiles and runs on older JDKs. PlayerBenchmark runs its
+   * HTTP clients on the same kind of executor.
+   */
+  static ExecutorService newThreadPerRequestExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /**
+   * A handler for one route. Requests other than GET are answered with 405 before any search
+   * runs. The server passes every path that starts with the context path to its handler, so a
+   * route without a path parameter answers 404 unless the path is exactly the context path.
+   */
+  private abstract static class Route implements HttpHandler {
+    private final boolean exact;
+
+    Route(boolean exact) {
+      this.exact = exact;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "GET");
+        send(exchange, 405, "{\"error\":\"method not allowed\"}");
+      } else if (exact && !exchange.getRequestURI().getRawPath().equals(exchange.getHttpContext().getPath())) {
+        send(exchange, 404, "{\"error\":\"not found\"}");
+      } else {
+        respond(exchange);
+      }
+    }
+
+    abstract void respond(HttpExchange exchange) throws IOException;
+  }
+
+  /**
+   * Sends a JSON response.
+   */
+  private static void send(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(body);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * @return the rest of the request path after the context path. Only percent escapes are
+   *         decoded, a + in a path is a plus sign and not a space as in a query.
+   */
+  private static String pathParameter(HttpExchange exchange, String contextPath) {
+    String path = exchange.getRequestURI().getPath();
+    return path.substring(Math.min(path.length(), contextPath.length()));
+  }
+
+  private static Map<String, String> queryParameters(HttpExchange exchange) {
+    Map<String, String> parameters = new HashMap<String, String>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null)
+      return parameters;
+    for (String pair : query.split("&")) {
+      int split = pair.indexOf('=');
+      if (split > 0)
+        parameters.put(decode(pair.substring(0, split)), decode(pair.substring(split + 1)));
+    }
+    return parameters;
+  }
+
+  /**
+   * Decodes a query parameter, where a + stands for a space.
+   */
+  private static String decode(String value) {
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError("UTF-8 is always supported", e);
+    } catch (IllegalArgumentException e) {
+      return value; // malformed escapes are taken literally
+    }
+  }
+
+  /**
+   * Parses a result size parameter, falling back to the default for missing or malformed values
+   * and capping it at MAX_LIMIT.
+   */
+  private static int limit(String value) {
+    if (value == null)
+      return DEFAULT_LIMIT;
+    try {
+      return Math.max(0, Math.min(MAX_LIMIT, Integer.parseInt(value)));
+    } catch (NumberFormatException e) {
+      return DEFAULT_LIMIT;
+    }
+  }
+
+  static String toJson(List<Player> players) {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < players.size(); i++) {
+      if (i > 0)
+        sb.append(',');
+      appendJson(sb, players.get(i));
+    }
+    return sb.append(']').toString();
+  }
+
+  static String toJson(Player p) {
+    StringBuilder sb = new StringBuilder();
+    appendJson(sb, p);
+    return sb.toString();
+  }
+
+  static String toJson(LruCache<?, ?> cache) {
+    return "{\"size\":" + cache.size() + ",\"capacity\":" + cache.capacity() + ",\"hits\":" + cache.hits()
+        + ",\"misses\":" + cache.misses() + ",\"evictions\":" + cache.evictions() + "}";
+  }
+
+  private static void appendJson(StringBuilder sb, Player p) {
+    sb.append("{\"id\":");
+    appendString(sb, p.getID());
+    sb.append(",\"name\":");
+    appendString(sb, p.getPlayerName());
+    sb.append(",\"team\":");
+    appendString(sb, p.getTeam());
+    sb.append(",\"season\":").append(p.getSeason());
+    sb.append(",\"ppg\":");
+    appendNumber(sb, p.getPPGAsDouble());
+    sb.append(",\"rpg\":");
+    appendNumber(sb, p.getRPGAsDouble());
+    sb.append(",\"apg\":");
+    appendNumber(sb, p.getAPGAsDouble());
+    sb.append('}');
+  }
+
+  private static void appendNumber(StringBuilder sb, double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value))
+      sb.append("null");
+    else
+      sb.append(value);
+  }
+
+  private static void appendString(StringBuilder sb, String value) {
+    if (value == null) {
+      sb.append("null");
+      return;
+    }
+    sb.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        sb.append("\\\"");
+        break;
+      case '\\':
+        sb.append("\\\\");
+        break;
+      case '\n':
+        sb.append("\\n");
+        break;
+      case '\r':
+        sb.append("\\r");
+        break;
+      case '\t':
+        sb.append("\\t");
+        break;
+      default:
+        if (c < 0x20)
+          sb.append(String.format("\\u%04x", (int) c));
+        else
+          sb.append(c);
+      }
+    }
+    sb.append('"');
+  }
+}
@@ -0,0 +1,327 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column oriented storage for large numbers of player rows. Instead of one Player object (with its
+ * own strings and stat values) per row, every attribute is kept in its own array and a row is
+ * identified by its int index. Stats are stored as primitive doubles and every distinct team name
+ * is stored only once, rows refer to it by a team code.
+ *
+ * Backend reads a data set into a PlayerStore before it writes a MappedPlayerIndex for it, so that
+ * a data set that is too large for the heap as Player objects can still be indexed: besides its ID
+ * and name, a row takes about 42 bytes, where a Player with its lower case team key takes about 115.
+ */
+public class PlayerStore {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private String[] ids = new String[INITIAL_CAPACITY];
+  private String[] names = new String[INITIAL_CAPACITY];
+  private int[] teamCodes = new int[INITIAL_CAPACITY];
+  private int[] seasons = new int[INITIAL_CAPACITY];
+  private double[] ppg = new double[INITIAL_CAPACITY];
+  private double[] rpg = new double[INITIAL_CAPACITY];
+  private double[] apg = new double[INITIAL_CAPACITY];
+  private int size = 0; // the number of rows in this store
+
+  private List<String> teams = new ArrayList<String>(); // team names by team code
+  private Map<String, Integer> teamCodeOf = new HashMap<String, Integer>();
+
+  /**
+   * Appends a row holding the values of the given player.
+   * 
+   * @param p the player to copy into this store
+   * @return the row index of the new row
+   */
+  public int add(Player p) {
+    return add(p.getID(), p.getPlayerName(), p.getTeam(), p.getSeason(), p.getPPGAsDouble(), p.getRPGAsDouble(),
+        p.getAPGAsDouble());
+  }
+
+  /**
+   * Appends a row holding the given values, without a season. Missing stats are passed as NaN.
+   * 
+   * @return the row index of the new row
+   */
+  public int add(String ID, String playerName, String teamName, double PPG, double RPG, double APG) {
+    return add(ID, playerName, teamName, 0, PPG, RPG, APG);
+  }
+
+  /**
+   * Appends a row holding the given values. Missing stats are passed as NaN and a missing season
+   * as 0.
+   * 
+   * @return the row index of the new row
+   */
+  public int add(String ID, String playerName, String teamName, int season, double PPG, double RPG, double APG) {
+    if (size == ids.length) {
+      grow();
+    }
+    ids[size] = ID;
+    names[size] = playerName;
+    teamCodes[size] = teamCode(teamName);
+    seasons[size] = season;
+    ppg[size] = PPG;
+    rpg[size] = RPG;
+    apg[size] = APG;
+    return size++;
+  }
+
+  /**
+   * Returns the code of the given team name, assigning the next free code to a team that has not
+   * been seen before.
+   */
+  private int teamCode(String teamName) {
+    Integer code = teamCodeOf.get(teamName);
+    if (code == null) {
+      code = teams.size();
+      teams.add(teamName);
+      teamCodeOf.put(teamName, code);
+    }
+    return code;
+  }
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    ids = Arrays.copyOf(ids, capacity);
+    names = Arrays.copyOf(names, capacity);
+    teamCodes = Arrays.copyOf(teamCodes, capacity);
+    seasons = Arrays.copyOf(seasons, capacity);
+    ppg = Arrays.copyOf(ppg, capacity);
+    rpg = Arrays.copyOf(rpg, capacity);
+    apg = Arrays.copyOf(apg, capacity);
+  }
+
+  /**
+   * Removes every row that a later row with the same ID and season replaces, like Backend.groupById
+   * does when it reads a data set. The remaining rows keep their order and are numbered from 0
+   * again.
+   */
+  public void removeReplacedRows() {
+    Integer[] byId = rowNumbers();
+    // the sort is stable, so the rows of one ID and season stay in the order they were added
+    Arrays.parallelSort(byId, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int compare = Backend.compareIds(ids[a], ids[b]);
+        return compare != 0 ? compare : Integer.compare(seasons[a], seasons[b]);
+      }
+    });
+    boolean[] replaced = new boolean[size];
+    for (int i = 1; i < size; i++) {
+      int previous = byId[i - 1];
+      int row = byId[i];
+      if (Backend.compareIds(ids[previous], ids[row]) == 0 && seasons[previous] == seasons[row])
+        replaced[previous] = true;
+    }
+    int kept = 0;
+    for (int row = 0; row < size; row++) {
+      if (replaced[row])
+        continue;
+      ids[kept] = ids[row];
+      names[kept] = names[row];
+      teamCodes[kept] = teamCodes[row];
+      seasons[kept] = seasons[row];
+      ppg[kept] = ppg[row];
+      rpg[kept] = rpg[row];
+      apg[kept] = apg[row];
+      kept++;
+    }
+    Arrays.fill(ids, kept, size, null);
+    Arrays.fill(names, kept, size, null);
+    size = kept;
+  }
+
+  /**
+   * @return the row numbers from 0 to size() - 1, boxed so that they can be sorted with a
+   *         Comparator
+   */
+  Integer[] rowNumbers() {
+    Integer[] rows = new Integer[size];
+    for (int row = 0; row < size; row++) {
+      rows[row] = row;
+    }
+    return rows;
+  }
+
+  /**
+   * @return the number of rows in this store
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of distinct team names in this store
+   */
+  public int teamCount() {
+    return teams.size();
+  }
+
+  public String getID(int row) {
+    return ids[checkRow(row)];
+  }
+
+  public String getPlayerName(int row) {
+    return names[checkRow(row)];
+  }
+
+  public String getTeam(int row) {
+    return teams.get(teamCodes[checkRow(row)]);
+  }
+
+  public int getSeason(int row) {
+    return seasons[checkRow(row)];
+  }
+
+  public int getTeamCode(int row) {
+    return teamCodes[checkRow(row)];
+  }
+
+  /**
+   * @return the team name that belongs to the given team code
+   */
+  public String teamName(int teamCode) {
+    return teams.get(teamCode);
+  }
+
+  /**
+   * @return the value of the given stat in the given row, NaN when the row has no value
+   */
+  public double get(Stat stat, int row) {
+    return column(stat)[checkRow(row)];
+  }
+
+  /**
+   * Returns the backing array of a stat column. Only the first size() entries are meaningful. The
+   * array is shared with this store, so callers must not modify it.
+   */
+  double[] column(Stat stat) {
+    switch (stat) {
+    case PPG:
+      return ppg;
+    case RPG:
+      return rpg;
+    default:
+      return apg;
+    }
+  }
+
+  private int checkRow(int row) {
+    if (row < 0 || row >= size)
+      throw new IndexOutOfBoundsException("Row " + row + " is out of range for size " + size);
+    return row;
+  }
+
+  /**
+   * Creates a Player object holding a copy of the given row.
+   */
+  public Player toPlayer(int row) {
+    checkRow(row);
+    return new Player(ids[row], names[row], teams.get(teamCodes[row]), seasons[row], Player.box(ppg[row]),
+        Player.box(rpg[row]), Player.box(apg[row]));
+  }
+
+  /**
+   * Returns a view of the given row. The view reads straight from the columns of this store and
+   * can be moved to another row with moveTo, so a scan over many rows needs only one view object.
+   */
+  public Row view(int row) {
+    return new Row(checkRow(row));
+  }
+
+  /**
+   * Flyweight that presents one row of the store as a PlayerInterface.
+   */
+  public class Row implements PlayerInterface {
+    private int row;
+
+    private Row(int row) {
+      this.row = row;
+    }
+
+    /**
+     * Points this view at another row of the store.
+     * 
+     * @return this view
+     */
+    public Row moveTo(int row) {
+      this.row = checkRow(row);
+      return this;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    @Override
+    public String getID() {
+      return ids[row];
+    }
+
+    @Override
+    public String getPlayerName() {
+      return names[row];
+    }
+
+    @Override
+    public String getTeam() {
+      return teams.get(teamCodes[row]);
+    }
+
+    @Override
+    public int getSeason() {
+      return seasons[row];
+    }
+
+    @Override
+    public Double getAPG() {
+      return Player.box(apg[row]);
+    }
+
+    @Override
+    public Double getRPG() {
+      return Player.box(rpg[row]);
+    }
+
+    @Override
+    public Double getPPG() {
+      return Player.box(ppg[row]);
+    }
+
+    @Override
+    public double getAPGAsDouble() {
+      return apg[row];
+    }
+
+    @Override
+    public double getRPGAsDouble() {
+      return rpg[row];
+    }
+
+    @Override
+    public double getPPGAsDouble() {
+      return ppg[row];
+    }
+
+    /**
+     * Orders rows like Player.compareTo: by lower case name, then by name, by ID and the seasons of
+     * one player from the latest to the earliest.
+     */
+    @Override
+    public int compareTo(PlayerInterface otherPlayer) {
+      int compare = names[row].toLowerCase().compareTo(otherPlayer.getPlayerName().toLowerCase());
+      if (compare == 0)
+        compare = names[row].compareTo(otherPlayer.getPlayerName());
+      if (compare == 0)
+        compare = Backend.compareIds(ids[row], otherPlayer.getID());
+      if (compare == 0)
+        compare = Integer.compare(otherPlayer.getSeason(), seasons[row]);
+      return Integer.signum(compare);
+    }
+  }
+}
@@ -1,7 +1,12 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
-import java.util.Stack;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 
 public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionInterface<T> {
@@ -16,12 +21,27 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
     public Node<T> parent; // null for root node
     public Node<T> leftChild;
     public Node<T> rightChild;
+    public int subtreeSize = 1; // number of nodes in the subtree rooted at this node
 
     public Node(T data) {
       this.data = data;
       this.isBlack = false;
     }
 
+    /**
+     * Recomputes the subtree size of this node from the sizes of its children.
+     */
+    public void updateSize() {
+      subtreeSize = 1 + sizeOf(leftChild) + sizeOf(rightChild);
+    }
+
+    /**
+     * @return the number of nodes in the given subtree, 0 for an empty subtree
+     */
+    public static int sizeOf(Node<?> subtree) {
+      return subtree == null ? 0 : subtree.subtreeSize;
+    }
+
     /**
      * @return true when this node has a parent and is the left child of that parent, otherwise
      *         return false
@@ -62,16 +82,160 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
 
   protected Node<T> root; // reference to root node of tree, null when empty
   protected int size = 0; // the number of values in the tree
+  protected final Comparator<? super T> comparator; // null when the natural ordering is used
+  protected int modCount = 0; // number of structural changes, lets iterators fail fast
+
+  /**
+   * Creates an empty tree that orders its values by their natural ordering (compareTo).
+   */
+  public RedBlackTree() {
+    this(null);
+  }
+
+  /**
+   * Creates an empty tree that orders its values by the provided comparator. Two values that the
+   * comparator reports as equal are treated as duplicates.
+   * 
+   * @param comparator the ordering of this tree, or null to use the natural ordering
+   */
+  public RedBlackTree(Comparator<? super T> comparator) {
+    this.comparator = comparator;
+  }
+
+  /**
+   * Builds a tree that uses the natural ordering from values that are already sorted. See
+   * fromSorted(Iterator, int, Comparator).
+   */
+  public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(Iterator<T> values, int n)
+      throws NullPointerException, IllegalArgumentException {
+    return fromSorted(values, n, null);
+  }
+
+  /**
+   * Builds a tree from values that are already sorted by the given ordering. The tree is built
+   * bottom-up in linear time: every subtree is given the middle value of its range, so all empty
+   * child positions end up on the two deepest levels. The nodes on the deepest level of an
+   * incomplete tree are colored red and all others black, which gives every path the same number
+   * of black nodes.
+   * 
+   * @param values     supplies exactly n values in strictly ascending order
+   * @param n          the number of values to take from the iterator
+   * @param comparator the ordering of the new tree, or null to use the natural ordering
+   * @return a new tree holding the n values
+   * @throws NullPointerException     when one of the values is null
+   * @throws IllegalArgumentException when the values are not strictly ascending (which includes
+   *                                  duplicates) or n is negative
+   * @throws NoSuchElementException   when the iterator supplies fewer than n values
+   */
+  public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(Iterator<T> values, int n,
+      Comparator<? super T> comparator) throws NullPointerException, IllegalArgumentException {
+    if (n < 0)
+      throw new IllegalArgumentException("The number of values cannot be negative.");
+    RedBlackTree<T> tree = new RedBlackTree<T>(comparator);
+    // the depth of the deepest level, which is only partly filled when n + 1 is no power of two
+    int redDepth = 31 - Integer.numberOfLeadingZeros(n + 1);
+    tree.root = tree.new BulkBuilder(values, redDepth).build(n, 0);
+    tree.size = n;
+    return tree;
+  }
+
+  /**
+   * Builds a tree that uses the natural ordering from the values of a collection. See
+   * buildFrom(Collection, Comparator).
+   */
+  public static <T extends Comparable<T>> RedBlackTree<T> buildFrom(Collection<T> values)
+      throws NullPointerException, IllegalArgumentException {
+    return buildFrom(values, null);
+  }
 
   /**
-   * Performs a naive insertion into a binary search tree: adding the input data value to a new node
-   * in a leaf position within the tree. After this insertion, no attempt is made to restructure or
-   * balance the tree. This tree will not hold null references, nor duplicate data values.
+   * Builds a tree from the values of a collection in any order. The values are sorted once (in
+   * parallel for large collections) and the tree is then built in linear time by fromSorted, which
+   * is much cheaper than inserting the values one at a time.
+   * 
+   * @param values     the values to store, which must not contain null or duplicates
+   * @param comparator the ordering of the new tree, or null to use the natural ordering
+   * @return a new tree holding the values
+   * @throws NullPointerException     when the collection contains null
+   * @throws IllegalArgumentException when the collection contains duplicate values
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Comparable<T>> RedBlackTree<T> buildFrom(Collection<T> values,
+      Comparator<? super T> comparator) throws NullPointerException, IllegalArgumentException {
+    T[] sorted = (T[]) values.toArray(new Comparable<?>[values.size()]);
+    for (T value : sorted) {
+      if (value == null)
+        throw new NullPointerException("This RedBlackTree cannot store null references.");
+    }
+    Comparator<? super T> order = comparator;
+    if (order == null)
+      order = Comparator.naturalOrder();
+    Arrays.parallelSort(sorted, order);
+    return fromSorted(Arrays.asList(sorted).iterator(), sorted.length, comparator);
+  }
+
+  /**
+   * Builds balanced subtrees from the values of an iterator in in-order sequence, checking that
+   * every value is greater than the one before it.
+   */
+  private class BulkBuilder {
+    private final Iterator<T> values;
+    private final int redDepth;
+    private T previous = null;
+
+    private BulkBuilder(Iterator<T> values, int redDepth) {
+      this.values = values;
+      this.redDepth = redDepth;
+    }
+
+    /**
+     * @param n     the number of nodes in the subtree to build
+     * @param depth the depth of the root of that subtree within the whole tree
+     * @return the root of the new subtree, null when n is 0
+     */
+    private Node<T> build(int n, int depth) {
+      if (n == 0)
+        return null;
+      int leftSize = (n - 1) / 2;
+      Node<T> left = build(leftSize, depth + 1);
+      T data = values.next();
+      if (data == null)
+        throw new NullPointerException("This RedBlackTree cannot store null references.");
+      if (previous != null && compare(previous, data) >= 0)
+        throw new IllegalArgumentException("The values are not sorted or contain duplicates.");
+      previous = data;
+      Node<T> node = new Node<T>(data);
+      node.isBlack = depth != redDepth;
+      node.leftChild = left;
+      node.rightChild = build(n - 1 - leftSize, depth + 1);
+      if (node.leftChild != null)
+        node.leftChild.parent = node;
+      if (node.rightChild != null)
+        node.rightChild.parent = node;
+      node.subtreeSize = n;
+      return node;
+    }
+  }
+
+  /**
+   * Compares two values using the ordering of this tree.
+   * 
+   * @return negative, zero or positive as a is less than, equal to or greater than b
+   */
+  private int compare(T a, T b) {
+    return comparator == null ? a.compareTo(b) : comparator.compare(a, b);
+  }
+
+  /**
+   * Inserts the input data value into a new red node in a leaf position within the tree, and then
+   * restores the red-black tree properties. The position is found by a single loop that walks down
+   * from the root, so each level costs one comparison and no stack frame. This tree will not hold
+   * null references, nor duplicate data values.
    * 
    * @param data to be added into this binary search tree
    * @return true if the value was inserted, false if not
    * @throws NullPointerException     when the provided data argument is null
-   * @throws IllegalArgumentException when the newNode and subtree contain equal data references
+   * @throws IllegalArgumentException when the tree already contains a value equal to data
    */
   @Override
   public boolean insert(T data) throws NullPointerException, IllegalArgumentException {
@@ -81,74 +245,46 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
 
     Node<T> newNode = new Node<>(data);
     if (root == null) {
+      // add first node to an empty tree
       root = newNode;
       size++;
-
+      modCount++;
       this.root.isBlack = true;
-
       return true;
-    } // add first node to an empty tree
-    else {
-      boolean returnValue = insertHelper(newNode, root); // recursively insert into subtree
-      if (returnValue)
-        size++;
-      else
-        throw new IllegalArgumentException("This RedBlackTree already contains that value.");
-
-      this.root.isBlack = true;
-
-      return returnValue;
     }
-  }
-
-  /**
-   * Recursive helper method to find the subtree with a null reference in the position that the
-   * newNode should be inserted, and then extend this tree by the newNode in that position.
-   * 
-   * @param newNode is the new node that is being added to this tree
-   * @param subtree is the reference to a node within this tree which the newNode should be inserted
-   *                as a descenedent beneath
-   * @return true is the value was inserted in subtree, false if not
-   */
-  private boolean insertHelper(Node<T> newNode, Node<T> subtree) {
-    int compare = newNode.data.compareTo(subtree.data);
-    // do not allow duplicate values to be stored within this tree
-    if (compare == 0)
-      return false;
-
-    // store newNode within left subtree of subtree
-    else if (compare < 0) {
-      if (subtree.leftChild == null) { // left subtree empty, add here
-        subtree.leftChild = newNode;
-        newNode.parent = subtree;
-
-        if (!newNode.parent.isBlack)
-          // if red node is added to a red parent, it results in a violation of the Red
-          // Property of the RBT, and hence this method is called to cure the violation
-          this.enforceRBTreePropertiesAfterInsert(newNode);
 
-        return true;
-        // otherwise continue recursive search for location to insert
-      } else
-        return insertHelper(newNode, subtree.leftChild);
+    // walk down to the node that the new node will hang below
+    Node<T> parent = root;
+    int compare;
+    while (true) {
+      compare = compare(data, parent.data);
+      // do not allow duplicate values to be stored within this tree
+      if (compare == 0)
+        throw new IllegalArgumentException("This RedBlackTree already contains that value.");
+      Node<T> next = compare < 0 ? parent.leftChild : parent.rightChild;
+      if (next == null)
+        break;
+      parent = next;
     }
 
-    // store newNode within the right subtree of subtree
-    else {
-      if (subtree.rightChild == null) { // right subtree empty, add here
-        subtree.rightChild = newNode;
-        newNode.parent = subtree;
-
-        if (!newNode.parent.isBlack)
-          // if red node is added to a red parent, it results in a violation of the Red
-          // Property of the RBT, and hence this method is called to cure the violation
-          this.enforceRBTreePropertiesAfterInsert(newNode);
-
-        return true;
-        // otherwise continue recursive search for location to insert
-      } else
-        return insertHelper(newNode, subtree.rightChild);
-    }
+    if (compare < 0)
+      parent.leftChild = newNode;
+    else
+      parent.rightChild = newNode;
+    newNode.parent = parent;
+    size++;
+    modCount++;
+    // the new node is now part of every subtree on the path back to the root
+    for (Node<T> ancestor = parent; ancestor != null; ancestor = ancestor.parent)
+      ancestor.subtreeSize++;
+
+    if (!parent.isBlack)
+      // if red node is added to a red parent, it results in a violation of the Red
+      // Property of the RBT, and hence this method is called to cure the violation
+      this.enforceRBTreePropertiesAfterInsert(newNode);
+
+    this.root.isBlack = true;
+    return true;
   }
 
   /**
@@ -173,6 +309,9 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
           "The given nodes cannot be rotated due to an illegal relationship.");
     }
 
+    // the side of the grandparent that parent hangs on, child will take its place there
+    boolean parentIsLeftChild = parent.isLeftChild();
+
     // checks if the child is the left or right child of the given parent node
     if (child.isLeftChild()) {
       // if the given node is the left child of the parent node, then a right rotation
@@ -187,12 +326,10 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
 
       if (this.root == parent) {
         this.root = child;
+      } else if (parentIsLeftChild) {
+        parent.parent.leftChild = child;
       } else {
-        if (child.data.compareTo(parent.parent.data) < 0) {
-          parent.parent.leftChild = child;
-        } else {
-          parent.parent.rightChild = child;
-        }
+        parent.parent.rightChild = child;
       }
 
       parent.parent = child;
@@ -200,6 +337,10 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
       if (parent.leftChild != null)
         parent.leftChild.parent = parent;
 
+      // parent is now below child, so its size must be fixed first
+      parent.updateSize();
+      child.updateSize();
+
     } else {
       // if the given node is the right child of the parent node, then a left rotation
       // is performed
@@ -213,142 +354,199 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
 
       if (this.root == parent) {
         this.root = child;
+      } else if (parentIsLeftChild) {
+        parent.parent.leftChild = child;
       } else {
-        if (child.data.compareTo(parent.parent.data) < 0) {
-          parent.parent.leftChild = child;
-        } else {
-          parent.parent.rightChild = child;
-        }
+        parent.parent.rightChild = child;
       }
 
       parent.parent = child;
 
       if (parent.rightChild != null)
         parent.rightChild.parent = parent;
+
+      // parent is now below child, so its size must be fixed first
+      parent.updateSize();
+      child.updateSize();
     }
   }
 
   /**
    * Cures the given RBT of any and all property violations caused upon the adding of a node to the
-   * RBT.
+   * RBT. Works its way up the tree in a loop: while the current node and its parent are both red,
+   * either the parent and its sibling are recolored and the grandparent becomes the current node,
+   * or one or two rotations end the repair. Which side a node hangs on is read from the parent
+   * references, no values are compared.
    * 
    * @param newNode is the new node that is being added to this tree
    */
   private void enforceRBTreePropertiesAfterInsert(Node<T> newNode) {
-
-    // the conditional performs two roles:
-    // => acts as a base case for any recursion up the tree.
-    // => since a node being directly attached to the root will never
-    // cause any violations, this conditional ensures that the method terminates
-    // here.
-    if (newNode.parent == this.root) {
-      return;
-    }
-
-    // checks if the parent node is the left or right child of its grandparent node
-    int compare = newNode.parent.data.compareTo(newNode.parent.parent.data);
-    Node<T> parentSibling;
-
-    // if the parent is the left child, then the parentSibling variable stores the
-    // right child of the grandparent node, and vice-versa
-    if (compare < 0) {
-      parentSibling = newNode.parent.parent.rightChild;
-    } else {
-      parentSibling = newNode.parent.parent.leftChild;
-    }
-
-    // performs the operations required to cure all violations, based on all
-    // possible setups
-    if (parentSibling != null) {
-
-      // if the parent is red, and the parent's sibling is black, then a rotation is
-      // necessary
-      if (!newNode.parent.isBlack && parentSibling.isBlack) {
-        if (newNode.data.compareTo(newNode.parent.data) != compare) {
+    Node<T> node = newNode;
+    // a red parent is never the root, so the grandparent exists within the loop
+    while (node != this.root && !node.parent.isBlack) {
+      Node<T> parent = node.parent;
+      Node<T> grandparent = parent.parent;
+      boolean parentIsLeftChild = parent.isLeftChild();
+
+      // if the parent is the left child, then the parentSibling variable stores the
+      // right child of the grandparent node, and vice-versa
+      Node<T> parentSibling = parentIsLeftChild ? grandparent.rightChild : grandparent.leftChild;
+
+      if (parentSibling != null && !parentSibling.isBlack) {
+        // the parent and its sibling are both red: they become black and the grandparent
+        // red, which may in turn violate the Red Property one level further up
+        parent.isBlack = true;
+        parentSibling.isBlack = true;
+        grandparent.isBlack = false;
+        node = grandparent;
+      } else {
+        if (node.isLeftChild() != parentIsLeftChild) {
           // if the child node is to the side opposite as compared to the side that the
-          // parent node is of the grandparent node
+          // parent node is of the grandparent node, the child and parent are first rotated
+          // so that both hang on the same side
           /*
            * Example: A / \ (P) B C \ (C) D
            * 
            * => Node B (parent node) is to the left of Node A (grandparent node), but Node D (child
            * node) is to the right of Node B (parent node)
            */
+          rotate(node, parent);
+          parent = node;
+        }
+        // the colors of the nodes that need to be rotated are swapped, and the rotation cures
+        // all violations
+        parent.isBlack = true;
+        grandparent.isBlack = false;
+        rotate(parent, grandparent);
+        return;
+      }
+    }
+  }
 
-          // the child and parent are first rotated
-          rotate(newNode, newNode.parent);
+  /**
+   * Removes the value that is equal to data from this tree and restores the red-black tree
+   * properties. A node with two children first takes over the value of its successor, so the node
+   * that is actually unlinked always has at most one child.
+   * 
+   * @param data the value to remove
+   * @return true if the value was removed, false if the tree did not contain it
+   * @throws NullPointerException when the provided data argument is null
+   */
+  public boolean remove(T data) throws NullPointerException {
+    if (data == null)
+      throw new NullPointerException("This RedBlackTree cannot store null references.");
+    Node<T> node = root;
+    while (node != null) {
+      int compare = compare(data, node.data);
+      if (compare == 0)
+        break;
+      node = compare < 0 ? node.leftChild : node.rightChild;
+    }
+    if (node == null)
+      return false;
 
-          // the colors of the nodes that need to be next rotated are swapped
-          newNode.isBlack = !newNode.isBlack;
-          newNode.parent.isBlack = !newNode.parent.isBlack;
+    if (node.leftChild != null && node.rightChild != null) {
+      // the successor has no left child, move its value up and unlink it instead
+      Node<T> successor = node.rightChild;
+      while (successor.leftChild != null)
+        successor = successor.leftChild;
+      node.data = successor.data;
+      node = successor;
+    }
 
-          // the final rotation to cure all violations
-          rotate(newNode, newNode.parent);
-        } else {
-          // if the child node is to the same side as compared to the side that the
-          // parent node is of the grandparent node
-          /*
-           * Example: A / \ (P) B C / (C) D
-           * 
-           * => Node B (parent node) is to the left of Node A (grandparent node), and Node D (child
-           * node) is to the left of Node B (parent node)
-           */
+    Node<T> child = node.leftChild != null ? node.leftChild : node.rightChild;
+    if (child != null) {
+      // a node with a single child is black and its child is red, the child takes its place and
+      // its color
+      replaceChild(node, child);
+      child.isBlack = true;
+    } else if (node == root) {
+      root = null;
+    } else {
+      // a black leaf leaves its path one black node short, repair this while the leaf is still in
+      // place so that the rotations see consistent subtree sizes, then unlink it
+      if (node.isBlack)
+        enforceRBTreePropertiesBeforeRemove(node);
+      replaceChild(node, null);
+    }
+    for (Node<T> ancestor = node.parent; ancestor != null; ancestor = ancestor.parent)
+      ancestor.subtreeSize--;
+    node.parent = null;
 
-          // the colors of the nodes that need to be rotated are swapped
-          newNode.parent.isBlack = !newNode.parent.isBlack;
-          newNode.parent.parent.isBlack = !newNode.parent.parent.isBlack;
+    size--;
+    modCount++;
+    return true;
+  }
 
-          // the rotation to cure all violations
-          rotate(newNode.parent, newNode.parent.parent);
-        }
-      } else {
-        // if the parent node and the parent's sibling node are of the same color, then their colors
-        // are changed. This process is continued (recursively) upwards till the root node
+  /**
+   * Puts replacement in the position of node below node's parent (or at the root).
+   */
+  private void replaceChild(Node<T> node, Node<T> replacement) {
+    if (node.parent == null)
+      root = replacement;
+    else if (node.isLeftChild())
+      node.parent.leftChild = replacement;
+    else
+      node.parent.rightChild = replacement;
+    if (replacement != null)
+      replacement.parent = node.parent;
+  }
 
-        // the colors of the parent and parent's sibling nodes are changed
-        newNode.parent.isBlack = !newNode.parent.isBlack;
-        parentSibling.isBlack = !parentSibling.isBlack;
+  /**
+   * @return true when the node is black, null children count as black
+   */
+  private static boolean isBlack(Node<?> node) {
+    return node == null || node.isBlack;
+  }
 
-        // the recursion process to cure all violations
-        this.enforceRBTreePropertiesAfterInsert(newNode.parent);
+  /**
+   * Cures the red-black tree properties for the removal of the given black leaf. Every path through
+   * the leaf is one black node short. Starting at the leaf, the shortage is either fixed locally by
+   * recoloring and at most three rotations around the sibling, or it is passed on to the parent by
+   * making the sibling red.
+   * 
+   * @param leaf the black leaf that is about to be removed
+   */
+  private void enforceRBTreePropertiesBeforeRemove(Node<T> leaf) {
+    Node<T> node = leaf;
+    while (node != root && node.isBlack) {
+      Node<T> parent = node.parent;
+      boolean nodeIsLeftChild = node.isLeftChild();
+      // the sibling exists because the paths through it hold at least one black node more
+      Node<T> sibling = nodeIsLeftChild ? parent.rightChild : parent.leftChild;
+
+      if (!sibling.isBlack) {
+        // a red sibling is rotated above the parent, which gives the node a black sibling
+        sibling.isBlack = true;
+        parent.isBlack = false;
+        rotate(sibling, parent);
+        sibling = nodeIsLeftChild ? parent.rightChild : parent.leftChild;
       }
-    } else {
-      if (newNode.data.compareTo(newNode.parent.data) != compare) {
-        // if the child node is to the side opposite as compared to the side that the
-        // parent node is of the grandparent node
-        /*
-         * Example: A / \ (P) B C \ (C) D
-         * 
-         * => Node B (parent node) is to the left of Node A (grandparent node), but Node D (child
-         * node) is to the right of Node B (parent node)
-         */
-
-        // the child and parent are first rotated
-        rotate(newNode, newNode.parent);
-
-        // the colors of the nodes that need to be rotated are swapped
-        newNode.isBlack = !newNode.isBlack;
-        newNode.parent.isBlack = !newNode.parent.isBlack;
-
-        // the final rotation to cure all violations
-        rotate(newNode, newNode.parent);
+
+      Node<T> nearNephew = nodeIsLeftChild ? sibling.leftChild : sibling.rightChild;
+      Node<T> farNephew = nodeIsLeftChild ? sibling.rightChild : sibling.leftChild;
+      if (isBlack(nearNephew) && isBlack(farNephew)) {
+        // the sibling can turn red, which moves the shortage up to the parent
+        sibling.isBlack = false;
+        node = parent;
       } else {
-        // if the child node is to the same side as compared to the side that the
-        // parent node is of the grandparent node
-        /*
-         * Example: A / \ (P) B C / (C) D
-         * 
-         * => Node B (parent node) is to the left of Node A (grandparent node), and Node D (child
-         * node) is to the left of Node B (parent node)
-         */
-
-        // the colors of the nodes that need to be rotated are swapped
-        newNode.parent.isBlack = !newNode.parent.isBlack;
-        newNode.parent.parent.isBlack = !newNode.parent.parent.isBlack;
-
-        // the rotation to cure all violations
-        rotate(newNode.parent, newNode.parent.parent);
+        if (isBlack(farNephew)) {
+          // turn the red near nephew into the far nephew
+          nearNephew.isBlack = true;
+          sibling.isBlack = false;
+          rotate(nearNephew, sibling);
+          farNephew = sibling;
+          sibling = nearNephew;
+        }
+        // rotating the sibling above the parent adds a black node to the short side
+        sibling.isBlack = parent.isBlack;
+        parent.isBlack = true;
+        farNephew.isBlack = true;
+        rotate(sibling, parent);
+        return;
       }
     }
+    node.isBlack = true;
   }
 
   /**
@@ -382,98 +580,362 @@ public class RedBlackTree<T extends Comparable<T>> implements SortedCollectionIn
     // null references will not be stored within this tree
     if (data == null)
       throw new NullPointerException("This RedBlackTree cannot store null references.");
-    return this.containsHelper(data, root);
+    Node<T> current = root;
+    while (current != null) {
+      int compare = compare(data, current.data);
+      if (compare < 0) {
+        // go left in the tree
+        current = current.leftChild;
+      } else if (compare > 0) {
+        // go right in the tree
+        current = current.rightChild;
+      } else {
+        // we found it :)
+        return true;
+      }
+    }
+    // we are at a null child, value is not in tree
+    return false;
   }
 
   /**
-   * Recursive helper method that recurses through the tree and looks for the value *data*.
+   * Looks up a value with a single descent from the root. The key compares itself against the
+   * values stored in this tree and must be consistent with the ordering of this tree: negative
+   * when the wanted value lies to the left, positive when it lies to the right. This allows
+   * lookups by a derived key (for example a name) without having to build a full value to search
+   * for.
    * 
-   * @param data    the data value to look for
-   * @param subtree the subtree to search through
-   * @return true of the value is in the subtree, false if not
+   * @param key the probe that is compared against the stored values
+   * @return a stored value that the key compares equal to, or null if there is none
    */
-  private boolean containsHelper(T data, Node<T> subtree) {
-    if (subtree == null) {
-      // we are at a null child, value is not in tree
-      return false;
-    } else {
-      int compare = data.compareTo(subtree.data);
+  public T get(Comparable<? super T> key) {
+    if (key == null)
+      throw new NullPointerException("This RedBlackTree cannot store null references.");
+    Node<T> current = root;
+    while (current != null) {
+      int compare = key.compareTo(current.data);
       if (compare < 0) {
-        // go left in the tree
-        return containsHelper(data, subtree.leftChild);
+        current = current.leftChild;
       } else if (compare > 0) {
-        // go right in the tree
-        return containsHelper(data, subtree.rightChild);
+        current = current.rightChild;
       } else {
-        // we found it :)
-        return true;
+        return current.data;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the value at the given position of the in-order sequence, found by a single descent
+   * that uses the subtree sizes.
+   * 
+   * @param index the zero based rank of the value to return
+   * @return the value that has exactly index smaller values in this tree
+   * @throws IndexOutOfBoundsException when index is negative or not smaller than size()
+   */
+  public T select(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for size " + size);
+    return selectNode(index).data;
+  }
+
+  /**
+   * @return the node holding the value of the given rank, or null when index equals size()
+   */
+  private Node<T> selectNode(int index) {
+    Node<T> current = root;
+    while (current != null) {
+      int leftSize = Node.sizeOf(current.leftChild);
+      if (index < leftSize) {
+        current = current.leftChild;
+      } else if (index == leftSize) {
+        return current;
+      } else {
+        index -= leftSize + 1;
+        current = current.rightChild;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Counts the values that lie before the key, that is all values the key compares greater than.
+   * The key follows the same rules as for get. For a tree using the natural ordering any value of
+   * type T can be used as a key.
+   * 
+   * @param key the probe that is compared against the stored values
+   * @return the number of values in this tree that are smaller than the key
+   */
+  public int rank(Comparable<? super T> key) {
+    if (key == null)
+      throw new NullPointerException("This RedBlackTree cannot store null references.");
+    int rank = 0;
+    Node<T> current = root;
+    while (current != null) {
+      if (key.compareTo(current.data) > 0) {
+        rank += Node.sizeOf(current.leftChild) + 1;
+        current = current.rightChild;
+      } else {
+        current = current.leftChild;
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Finds the greatest value that is smaller than or equal to the key.
+   * 
+   * @param key the probe that is compared against the stored values
+   * @return the greatest value at or before the key, or null if there is none
+   */
+  public T floor(Comparable<? super T> key) {
+    if (key == null)
+      throw new NullPointerException("This RedBlackTree cannot store null references.");
+    Node<T> floor = null;
+    Node<T> current = root;
+    while (current != null) {
+      if (key.compareTo(current.data) >= 0) {
+        floor = current;
+        current = current.rightChild;
+      } else {
+        current = current.leftChild;
+      }
+    }
+    return floor == null ? null : floor.data;
+  }
+
+  /**
+   * Finds the smallest value that is greater than or equal to the key.
+   * 
+   * @param key the probe that is compared against the stored values
+   * @return the smallest value at or after the key, or null if there is none
+   */
+  public T ceiling(Comparable<? super T> key) {
+    if (key == null)
+      throw new NullPointerException("This RedBlackTree cannot store null references.");
+    Node<T> ceiling = ceilingNode(key);
+    return ceiling == null ? null : ceiling.data;
+  }
+
+  /**
+   * @return the node holding the smallest value at or after the key, or null if there is none
+   */
+  private Node<T> ceilingNode(Comparable<? super T> key) {
+    Node<T> ceiling = null;
+    Node<T> current = root;
+    while (current != null) {
+      if (key.compareTo(current.data) <= 0) {
+        ceiling = current;
+        current = current.leftChild;
+      } else {
+        current = current.rightChild;
       }
     }
+    return ceiling;
+  }
+
+  /**
+   * @return the node holding the value that follows the given node in in-order sequence, or null
+   *         when the given node holds the greatest value
+   */
+  private static <T> Node<T> successor(Node<T> node) {
+    if (node.rightChild != null) {
+      node = node.rightChild;
+      while (node.leftChild != null)
+        node = node.leftChild;
+      return node;
+    }
+    // climb until we leave a left subtree, the parent of that subtree comes next
+    while (node.parent != null && !node.isLeftChild())
+      node = node.parent;
+    return node.parent;
   }
 
   /**
-   * Returns an iterator over the values in in-order (sorted) order.
+   * Returns an iterator over the values in in-order (sorted) order that are at or after the from key
+   * and before the to key. Finding the first value takes a single descent, each further value is
+   * reached through the parent references, so visiting k values costs O(log n + k).
+   * 
+   * @param from the inclusive lower bound, or null to start at the smallest value
+   * @param to   the exclusive upper bound, or null to continue to the greatest value
+   * @return iterator over the values in the range, in in-order sequence
+   */
+  public Iterator<T> rangeIterator(Comparable<? super T> from, final Comparable<? super T> to) {
+    Node<T> first = from == null ? selectNode(0) : ceilingNode(from);
+    return new RangeIterator(first, to);
+  }
+
+  /**
+   * Returns an iterator over the values in in-order (sorted) order that starts at the value of the
+   * given rank. This allows a caller to page through the tree without visiting the skipped values.
+   * 
+   * @param index the zero based rank of the first value to return, may equal size()
+   * @return iterator over the values from the given rank to the end of the tree
+   * @throws IndexOutOfBoundsException when index is negative or greater than size()
+   */
+  public Iterator<T> iteratorFrom(int index) throws IndexOutOfBoundsException {
+    if (index < 0 || index > size)
+      throw new IndexOutOfBoundsException("Index " + index + " is out of range for size " + size);
+    return new RangeIterator(selectNode(index), null);
+  }
+
+  /**
+   * Iterator that walks from a start node to its successors until the end of the tree or until a
+   * value reaches the exclusive upper bound. The successor of a node is found through the child
+   * and parent references, so no stack or other auxiliary storage is needed. The iterator fails
+   * fast with a ConcurrentModificationException when the tree is changed while it is in use.
+   */
+  private class RangeIterator implements Iterator<T> {
+    private Node<T> next;
+    private final Comparable<? super T> to;
+    private final int expectedModCount = modCount;
+
+    private RangeIterator(Node<T> first, Comparable<? super T> to) {
+      this.to = to;
+      this.next = first != null && (to == null || to.compareTo(first.data) > 0) ? first : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public T next() {
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException("The tree was changed during the iteration");
+      if (next == null)
+        throw new NoSuchElementException("There are no more elements in the tree");
+      Node<T> current = next;
+      next = successor(current);
+      if (next != null && to != null && to.compareTo(next.data) <= 0)
+        next = null;
+      return current.data;
+    }
+  }
+
+  /**
+   * Returns an iterator over the values in in-order (sorted) order. The iterator walks from each
+   * node to its successor through the parent references and allocates nothing but itself.
    * 
    * @return iterator object that traverses the tree in in-order sequence
    */
   @Override
   public Iterator<T> iterator() {
-    // use an anonymous class here that implements the Iterator interface
-    // we create a new on-off object of this class everytime the iterator
-    // method is called
-    return new Iterator<T>() {
-      // a stack and current reference store the progress of the traversal
-      // so that we can return one value at a time with the Iterator
-      Stack<Node<T>> stack = null;
-      Node<T> current = root;
-
-      /**
-       * The next method is called for each value in the traversal sequence. It returns one value at
-       * a time.
-       * 
-       * @return next value in the sequence of the traversal
-       * @throws NoSuchElementException if there is no more elements in the sequence
-       */
-      public T next() {
-        // if stack == null, we need to initialize the stack and current element
-        if (stack == null) {
-          stack = new Stack<Node<T>>();
-          current = root;
-        }
-        // go left as far as possible in the sub tree we are in until we hit a null
-        // leaf (current is null), pushing all the nodes we fund on our way onto the
-        // stack to process later
-        while (current != null) {
-          stack.push(current);
-          current = current.leftChild;
-        }
-        // as long as the stack is not empty, we haven't finished the traversal yet;
-        // take the next element from the stack and return it, then start to step down
-        // its right subtree (set its right sub tree to current)
-        if (!stack.isEmpty()) {
-          Node<T> processedNode = stack.pop();
-          current = processedNode.rightChild;
-          return processedNode.data;
-        } else {
-          // if the stack is empty, we are done with our traversal
-          throw new NoSuchElementException("There are no more elements in the tree");
-        }
+    return new RangeIterator(selectNode(0), null);
+  }
 
-      }
+  /**
+   * Performs the given action for each value in in-order (sorted) order, without creating an
+   * iterator.
+   * 
+   * @param action the action to perform on each value
+   * @throws ConcurrentModificationException when the action changes this tree
+   */
+  @Override
+  public void forEach(Consumer<? super T> action) {
+    if (action == null)
+      throw new NullPointerException("The action cannot be null.");
+    int expectedModCount = modCount;
+    for (Node<T> node = selectNode(0); node != null; node = successor(node)) {
+      action.accept(node.data);
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException("The tree was changed during the iteration");
+    }
+  }
+
+  /**
+   * Returns a spliterator over the values in in-order (sorted) order. It knows its exact size and
+   * splits its range of ranks in half, finding the first node of the upper half with a single
+   * descent that uses the subtree sizes. This lets StreamSupport.stream(tree.spliterator(), true)
+   * scan the tree in parallel with evenly sized parts.
+   * 
+   * @return spliterator over all values of this tree
+   */
+  @Override
+  public Spliterator<T> spliterator() {
+    return new RankSpliterator(0, size, modCount);
+  }
 
-      /**
-       * Returns a boolean that indicates if the iterator has more elements (true), or if the
-       * traversal has finished (false)
-       * 
-       * @return boolean indicating whether there are more elements / steps for the traversal
-       */
-      public boolean hasNext() {
-        // return true if we either still have a current reference, or the stack
-        // is not empty yet
-        return !(current == null && (stack == null || stack.isEmpty()));
+  /**
+   * Spliterator over the values whose ranks lie between lo (inclusive) and hi (exclusive).
+   */
+  private class RankSpliterator implements Spliterator<T> {
+    private int lo;
+    private final int hi;
+    private Node<T> current; // the node of rank lo, looked up on first use
+    private final int expectedModCount;
+
+    private RankSpliterator(int lo, int hi, int expectedModCount) {
+      this.lo = lo;
+      this.hi = hi;
+      this.expectedModCount = expectedModCount;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+      if (action == null)
+        throw new NullPointerException("The action cannot be null.");
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException("The tree was changed during the iteration");
+      if (lo >= hi)
+        return false;
+      if (current == null)
+        current = selectNode(lo);
+      T data = current.data;
+      current = successor(current);
+      lo++;
+      action.accept(data);
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+      if (action == null)
+        throw new NullPointerException("The action cannot be null.");
+      if (lo >= hi)
+        return;
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException("The tree was changed during the iteration");
+      Node<T> node = current == null ? selectNode(lo) : current;
+      int remaining = hi - lo;
+      lo = hi;
+      current = null;
+      for (; remaining > 0; remaining--) {
+        action.accept(node.data);
+        node = successor(node);
       }
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException("The tree was changed during the iteration");
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+      int mid = (lo + hi) >>> 1;
+      if (mid <= lo)
+        return null;
+      // the lower half is handed out, this spliterator continues with the upper half
+      RankSpliterator lower = new RankSpliterator(lo, mid, expectedModCount);
+      lower.current = current;
+      lo = mid;
+      current = null;
+      return lower;
+    }
+
+    @Override
+    public long estimateSize() {
+      return hi - lo;
+    }
 
-    };
+    @Override
+    public int characteristics() {
+      return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+      return comparator;
+    }
   }
 
   /**
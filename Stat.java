@@ -0,0 +1,37 @@
+import java.util.Comparator;
+
+/**
+ * The per game statistics that players can be ranked by.
+ */
+public enum Stat {
+  PPG, RPG, APG;
+
+  /**
+   * Orders players from the highest to the lowest value of this stat. Players with the same value
+   * are ordered by their ID, with players without an ID first, and the seasons of one player from
+   * the latest to the earliest, so that no two distinct players or seasons compare as equal.
+   */
+  final Comparator<Player> order = new Comparator<Player>() {
+    @Override
+    public int compare(Player a, Player b) {
+      int compare = Double.compare(get(b), get(a));
+      if (compare == 0)
+        compare = Backend.compareIds(a.getID(), b.getID());
+      return compare != 0 ? compare : Integer.compare(b.season, a.season);
+    }
+  };
+
+  /**
+   * @return the value of this stat for the given player, or NaN if the player has none
+   */
+  public double get(Player p) {
+    switch (this) {
+    case PPG:
+      return p.PPG;
+    case RPG:
+      return p.RPG;
+    default:
+      return p.APG;
+    }
+  }
+}
@@ -0,0 +1,358 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Sums, averages, extremes, standard deviations, percentiles and histograms of one stat, over all
+ * players and grouped by team. Players without a value for the stat are left out, and players
+ * without a team only count towards the overall summary.
+ *
+ * The aggregates are computed on a fork-join pool in three passes over primitive arrays. The
+ * players are read from the leaderboard of the stat, which is already sorted, in chunks that are
+ * read in parallel into a value column and a team column. The values are then grouped by team with
+ * a parallel counting sort, which is stable and therefore keeps every team sorted as well, so
+ * percentiles are read off without sorting. Finally the sums and deviations of every group are
+ * added up in parallel. The chunks do not depend on the parallelism, so the results are the same
+ * on any pool.
+ */
+public final class StatAggregates {
+
+  // the number of players that one task reads, groups or sums
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  /**
+   * The aggregates of one stat over one group of players. The values are kept sorted, so that any
+   * percentile or histogram can be read later without another pass over the players.
+   */
+  public static final class Summary {
+    private final double[] values; // sorted from high to low, shared with the other summaries
+    private final int offset;
+    private final int count;
+    private final double sum;
+    private final double squaredDeviations;
+
+    private Summary(double[] values, int offset, int count, double sum, double squaredDeviations) {
+      this.values = values;
+      this.offset = offset;
+      this.count = count;
+      this.sum = sum;
+      this.squaredDeviations = squaredDeviations;
+    }
+
+    /**
+     * @return the number of players in the group
+     */
+    public int count() {
+      return count;
+    }
+
+    public double sum() {
+      return sum;
+    }
+
+    /**
+     * @return the mean, or NaN for an empty group
+     */
+    public double mean() {
+      return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * @return the smallest value, or NaN for an empty group
+     */
+    public double min() {
+      return count == 0 ? Double.NaN : values[offset + count - 1];
+    }
+
+    /**
+     * @return the greatest value, or NaN for an empty group
+     */
+    public double max() {
+      return count == 0 ? Double.NaN : values[offset];
+    }
+
+    /**
+     * @return the population standard deviation, or NaN for an empty group
+     */
+    public double stddev() {
+      return count == 0 ? Double.NaN : Math.sqrt(squaredDeviations / count);
+    }
+
+    /**
+     * Returns the smallest value that at least the given percentage of the group does not exceed
+     * (the nearest-rank percentile).
+     *
+     * @param percentile between 0 and 100
+     * @return the value, or NaN for an empty group
+     */
+    public double percentile(double percentile) {
+      if (percentile < 0 || percentile > 100)
+        throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+      if (count == 0)
+        return Double.NaN;
+      int rank = Math.max(1, (int) Math.ceil(percentile / 100 * count));
+      return values[offset + count - rank];
+    }
+
+    /**
+     * Counts the values in equally wide bins between min and max. The last bin includes max.
+     *
+     * @param bins the number of bins, at least 1
+     * @return the count of every bin, from the lowest to the highest
+     */
+    public int[] histogram(int bins) {
+      if (bins < 1)
+        throw new IllegalArgumentException("A histogram needs at least one bin.");
+      int[] histogram = new int[bins];
+      if (count == 0)
+        return histogram;
+      double min = min();
+      double width = (max() - min) / bins;
+      for (int i = offset; i < offset + count; i++) {
+        int bin = width == 0 ? 0 : (int) ((values[i] - min) / width);
+        histogram[Math.min(bins - 1, bin)]++;
+      }
+      return histogram;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count %d, sum %.1f, mean %.3f, min %.1f, max %.1f, stddev %.3f, median %.1f", count, sum,
+          mean(), min(), max(), stddev(), percentile(50));
+    }
+  }
+
+  /**
+   * A leaderboard to aggregate, in the order of Stat.order.
+   */
+  abstract static class Source {
+    abstract int size();
+
+    abstract Iterator<Player> iteratorFrom(int index);
+
+    static Source of(final PersistentRedBlackTree<Player> leaderboard) {
+      return new Source() {
+        @Override
+        int size() {
+          return leaderboard.size();
+        }
+
+        @Override
+        Iterator<Player> iteratorFrom(int index) {
+          return leaderboard.iteratorFrom(index);
+        }
+      };
+    }
+
+    static Source of(final MappedPlayerIndex leaderboard) {
+      return new Source() {
+        @Override
+        int size() {
+          return leaderboard.size();
+        }
+
+        @Override
+        Iterator<Player> iteratorFrom(int index) {
+          return leaderboard.iteratorFrom(index);
+        }
+      };
+    }
+  }
+
+  private final Stat stat;
+  private final Summary all;
+  private final Map<String, Summary> teams;
+
+  private StatAggregates(Stat stat, Summary all, Map<String, Summary> teams) {
+    this.stat = stat;
+    this.all = all;
+    this.teams = teams;
+  }
+
+  public Stat stat() {
+    return stat;
+  }
+
+  /**
+   * @return the summary of all players that have a value for the stat
+   */
+  public Summary all() {
+    return all;
+  }
+
+  /**
+   * @return the summary of a team, ignoring case, or null when no player of the team has a value
+   *         for the stat
+   */
+  public Summary team(String team) {
+    return team == null ? null : teams.get(team.toLowerCase());
+  }
+
+  /**
+   * @return the summary of every team by lower case team name, in the order of the names
+   */
+  public Map<String, Summary> byTeam() {
+    return teams;
+  }
+
+  /**
+   * Computes the aggregates of a stat.
+   *
+   * @param leaderboard the players that have a value for the stat, in the order of stat.order
+   * @param teamKeys    the lower case names of all teams that the players can belong to
+   * @param pool        the pool that runs the passes
+   */
+  static StatAggregates compute(final Stat stat, final Source leaderboard, Collection<String> teamKeys, ForkJoinPool pool) {
+    final int n = leaderboard.size();
+    final String[] teamNames = teamKeys.toArray(new String[0]);
+    Arrays.sort(teamNames);
+    final Map<String, Integer> teamCodes = new HashMap<String, Integer>();
+    for (int code = 0; code < teamNames.length; code++) {
+      teamCodes.put(teamNames[code], code);
+    }
+    final int chunks = Math.max(1, (n + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    final double[] values = new double[n];
+    final int[] codes = new int[n];
+    // the number of players of every team in every chunk, turned into write positions below
+    final int[][] positions = new int[chunks][teamNames.length];
+
+    pool.invoke(new Chunks(new ChunkPass() {
+      @Override
+      public void run(int chunk) {
+        int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+        Iterator<Player> players = leaderboard.iteratorFrom(chunk * CHUNK_SIZE);
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+          Player p = players.next();
+          values[i] = stat.get(p);
+          Integer code = p.teamKey == null ? null : teamCodes.get(p.teamKey);
+          codes[i] = code == null ? -1 : code;
+          if (code != null)
+            positions[chunk][code]++;
+        }
+      }
+    }, 0, chunks));
+
+    // a team is one contiguous range of the grouped values, and within it the players of a chunk
+    // come after those of all earlier chunks
+    final int[] teamStarts = new int[teamNames.length + 1];
+    int position = 0;
+    for (int code = 0; code < teamNames.length; code++) {
+      teamStarts[code] = position;
+      for (int chunk = 0; chunk < chunks; chunk++) {
+        int count = positions[chunk][code];
+        positions[chunk][code] = position;
+        position += count;
+      }
+    }
+    teamStarts[teamNames.length] = position;
+    final double[] grouped = new double[position];
+    pool.invoke(new Chunks(new ChunkPass() {
+      @Override
+      public void run(int chunk) {
+        int[] next = positions[chunk];
+        int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+          if (codes[i] >= 0)
+            grouped[next[codes[i]]++] = values[i];
+        }
+      }
+    }, 0, chunks));
+
+    Map<String, Summary> teams = new TreeMap<String, Summary>();
+    for (int code = 0; code < teamNames.length; code++) {
+      int count = teamStarts[code + 1] - teamStarts[code];
+      if (count > 0)
+        teams.put(teamNames[code], summarize(grouped, teamStarts[code], count, pool));
+    }
+    return new StatAggregates(stat, summarize(values, 0, n, pool), Collections.unmodifiableMap(teams));
+  }
+
+  /**
+   * Sums a range in parallel, and then the squared deviations from its mean, which is more
+   * accurate than subtracting the squared mean from the mean of the squares.
+   */
+  private static Summary summarize(double[] values, int offset, int count, ForkJoinPool pool) {
+    double sum = pool.invoke(new RangeSum(values, offset, offset + count, Double.NaN));
+    double squaredDeviations = count == 0 ? 0
+        : pool.invoke(new RangeSum(values, offset, offset + count, sum / count));
+    return new Summary(values, offset, count, sum, squaredDeviations);
+  }
+
+  /**
+   * The work of one pass on one chunk of the players.
+   */
+  private interface ChunkPass {
+    void run(int chunk);
+  }
+
+  /**
+   * Runs a pass on every chunk in a range, splitting the range in halves.
+   */
+  private static final class Chunks extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final ChunkPass pass;
+    private final int from;
+    private final int to;
+
+    Chunks(ChunkPass pass, int from, int to) {
+      this.pass = pass;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        pass.run(from);
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new Chunks(pass, from, middle), new Chunks(pass, middle, to));
+    }
+  }
+
+  /**
+   * Adds up the values of a range, or their squared deviations from a mean when one is given.
+   */
+  private static final class RangeSum extends RecursiveTask<Double> {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] values;
+    private final int from;
+    private final int to;
+    private final double mean; // NaN to add up the values themselves
+
+    RangeSum(double[] values, int from, int to, double mean) {
+      this.values = values;
+      this.from = from;
+      this.to = to;
+      this.mean = mean;
+    }
+
+    @Override
+    protected Double compute() {
+      if (to - from <= CHUNK_SIZE) {
+        double sum = 0;
+        boolean deviations = !Double.isNaN(mean);
+        for (int i = from; i < to; i++) {
+          double value = deviations ? values[i] - mean : values[i];
+          sum += deviations ? value * value : value;
+        }
+        return sum;
+      }
+      int middle = (from + to) >>> 1;
+      RangeSum right = new RangeSum(values, middle, to, mean);
+      right.fork();
+      double left = new RangeSum(values, from, middle, mean).compute();
+      return left + right.join();
+    }
+  }
+}